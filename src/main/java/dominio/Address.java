@@ -180,12 +180,17 @@ public class Address implements Serializable {
 
     /**
      * Returns a hash code value for the address.
-     * The hash is computed using the textual components of the address.
+     * The hash is computed using the textual components of the address,
+     * combined positionally so that swapped components hash differently.
      * * @return A hash code value for this object.
      */
     @Override
     public int hashCode() {
-        return street1.hashCode() + street2.hashCode() + city.hashCode()
-                + state.hashCode() + zip.hashCode() + country.hashCode();
+        int h = street1.hashCode();
+        h = 31 * h + street2.hashCode();
+        h = 31 * h + city.hashCode();
+        h = 31 * h + state.hashCode();
+        h = 31 * h + zip.hashCode();
+        return 31 * h + country.hashCode();
     }
 }
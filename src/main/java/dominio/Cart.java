@@ -56,15 +56,40 @@ package dominio;
 import util.Validator;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.function.IntFunction;
 
 /**
  * Represents a user's shopping cart.
  * Manages the lifecycle of {@link CartLine} items and calculates totals,
  * taxes, and shipping costs.
+ * <p>
+ * The unit count, raw cost and weight of the cart are kept as running
+ * aggregates updated by {@link #increaseLine(Stock, int)} and
+ * {@link #changeLine(Stock, int)}, so pricing the cart with
+ * {@link #quote(Customer)} does not walk its lines. Each line is priced at
+ * the stock cost in effect when it was last added or changed.
+ * </p>
+ * <p>
+ * The units of every line are held in their {@link Stock} while they sit in
+ * the cart, so two carts cannot claim the same last copies. The holds are
+ * released by {@link #clear()}, e.g. when the cart expires, and turned into
+ * sales by {@link #commitReservations()} at checkout.
+ * </p>
+ * <p>
+ * Every operation holds the cart's monitor, so each cart is linearizable
+ * while different carts never contend. Callers that need several
+ * operations to be atomic, such as a checkout, synchronize on the cart.
+ * </p>
+ * <p>
+ * An idle cart can be {@link #pack(ByteBuffer, int) packed} into a compact
+ * record (ID, time, then book ID, quantity, held units and unit cost of each
+ * line) and {@link #unpack(ByteBuffer, int, IntFunction) unpacked} later
+ * into an equal cart. The stock holds of the lines stay in place meanwhile.
+ * </p>
  * <br><img src="./doc-files/Cart.png" alt="Cart Diagram">
  */
 public class Cart implements Serializable {
@@ -74,6 +99,14 @@ public class Cart implements Serializable {
     private final int id;
     private Date time;
     private HashMap<Integer, CartLine> linesByBookId;
+    private int itemCount;
+    private double rawCost;
+    private double weight;
+    private long fingerprint;
+    private transient ShippingCalculator shippingCalculator;
+
+    private static final int PACKED_HEADER = 16;
+    private static final int PACKED_LINE = 20;
 
     /**
      * Constructs a new Cart with a specific timestamp.
@@ -92,32 +125,110 @@ public class Cart implements Serializable {
     }
 
     /** @return A copy of the cart timestamp. */
-    public Date getTime() {
+    public synchronized Date getTime() {
         return new Date(time.getTime());
     }
 
     /** @param time The new timestamp. Must not be null. */
-    public void setTime(Date time) {
+    public synchronized void setTime(Date time) {
         this.time = new Date(Validator.notNull(time, "time").getTime());
     }
 
-    /** Resets the cart by removing all items. */
-    public void clear() {
+    /** Resets the cart by removing all items and releasing their stock holds. */
+    public synchronized void clear() {
+        if (linesByBookId != null) {
+            for (CartLine line : linesByBookId.values()) {
+                line.getStock().release(line.getHeld());
+            }
+        }
         linesByBookId = new HashMap<>();
+        itemCount = 0;
+        rawCost = 0;
+        weight = 0;
+        fingerprint = 0;
+    }
+
+    /**
+     * Turns the stock held by every line into a sale. The commit is all or
+     * nothing: if a line fails, the lines already committed are rolled back
+     * and their holds restored. The lines stay in the cart, without holds,
+     * until it is cleared.
+     * @throws IllegalArgumentException if a hold was lost.
+     */
+    public synchronized void commitReservations() {
+        CartLine[] lines = linesByBookId.values().toArray(new CartLine[0]);
+        int committed = 0;
+        try {
+            for (; committed < lines.length; committed++) {
+                CartLine line = lines[committed];
+                line.getStock().commitReservation(line.getHeld());
+            }
+        } catch (IllegalArgumentException e) {
+            while (committed-- > 0) {
+                lines[committed].getStock().revertCommit(lines[committed].getHeld());
+            }
+            throw e;
+        }
+        for (CartLine line : lines) {
+            line.setHeld(0);
+        }
     }
 
     /** @return An array list of cart lines. */
-    public ArrayList<CartLine> getLines() {
+    public synchronized ArrayList<CartLine> getLines() {
         return new ArrayList<>(linesByBookId.values());
     }
 
     /**
-     * Increases the quantity of a book in the cart.
+     * @param bookId The book ID.
+     * @return The quantity of the book in the cart, zero if absent.
+     */
+    public synchronized int getQty(int bookId) {
+        CartLine line = linesByBookId.get(bookId);
+        return line == null ? 0 : line.getQty();
+    }
+
+    /** @return Number of units in the cart. */
+    public synchronized int getItemCount() {
+        return itemCount;
+    }
+
+    /** @return Number of distinct books in the cart. */
+    public synchronized int getLineCount() {
+        return linesByBookId.size();
+    }
+
+    /** @return Total weight of the units in the cart. */
+    public synchronized double getWeight() {
+        return Math.max(weight, 0);
+    }
+
+    /**
+     * @param calculator The calculator that prices the shipping of
+     * {@link #total(Customer)}, usually the one of the store the cart
+     * belongs to. Must not be null.
+     */
+    public void setShippingCalculator(ShippingCalculator calculator) {
+        this.shippingCalculator = Validator.notNull(calculator, "calculator");
+    }
+
+    /**
+     * @return The calculator used by {@link #total(Customer)};
+     * {@link ShippingCalculator#FLAT} unless set.
+     */
+    public ShippingCalculator getShippingCalculator() {
+        ShippingCalculator calculator = shippingCalculator;
+        return calculator != null ? calculator : ShippingCalculator.FLAT;
+    }
+
+    /**
+     * Increases the quantity of a book in the cart, holding the added units
+     * in the stock.
      * @param stock The stock item to add. Must not be null.
      * @param quantity The amount to add. If the sum with current value exceeds below zero the item will be removed from cart.
      * @throws IllegalArgumentException if requested quantity exceeds available stock.
      */
-    public void increaseLine(Stock stock, int quantity) {
+    public synchronized void increaseLine(Stock stock, int quantity) {
         Validator.notNull(stock, "stock");
 
         Book book = stock.getBook();
@@ -125,50 +236,129 @@ public class Cart implements Serializable {
         int currentQty = (line == null) ? 0 : line.getQty();
         int newTotalQty = currentQty + quantity;
 
-        if (stock.getQty() < newTotalQty) {
-            throw new IllegalArgumentException("Insufficient stock for Book ID: " + book.getId()
-                    + ". Current: " + stock.getQty() + ". Requested: " + newTotalQty);
-        }
-
         if (line == null) {
+            checkShippable(book);
             line = new CartLine(0, stock);
-            linesByBookId.put(book.getId(), line);
         }
 
-        line.setQty(newTotalQty);
+        updateLine(line, newTotalQty);
 
         if (newTotalQty <= 0) {
             linesByBookId.remove(book.getId());
+        } else {
+            linesByBookId.put(book.getId(), line);
         }
     }
 
     /**
-     * Changes the absolute quantity of a book in the cart.
+     * Changes the absolute quantity of a book in the cart, adjusting the
+     * units held in the stock.
      * @param stock The stock item. Must not be null.
      * @param quantity The new absolute quantity. If is negative item will be removed from cart.
+     * @throws IllegalArgumentException if requested quantity exceeds available stock.
      */
-    public void changeLine(Stock stock, int quantity) {
+    public synchronized void changeLine(Stock stock, int quantity) {
         Validator.notNull(stock, "stock");
 
-        if (stock.getQty() < quantity) {
-            throw new IllegalArgumentException("Requested quantity exceeds available stock."
-                    + ". Current: " + stock.getQty() + ". Requested: " + quantity);
-        }
-
         Book book = stock.getBook();
+        CartLine line = linesByBookId.get(book.getId());
         if (quantity <= 0) {
-            linesByBookId.remove(book.getId());
+            if (line != null) {
+                updateLine(line, 0);
+                linesByBookId.remove(book.getId());
+            }
             return;
         }
 
-        CartLine line = linesByBookId.get(book.getId());
         if (line == null) {
-            line = new CartLine(quantity, stock);
-            linesByBookId.put(book.getId(), line);
-            return;
+            checkShippable(book);
+            line = new CartLine(0, stock);
         }
 
+        updateLine(line, quantity);
+        linesByBookId.put(book.getId(), line);
+    }
+
+    /**
+     * Sets the quantity of a line, adjusting its stock hold and re-pricing
+     * it at the current stock cost, and updates the running aggregates of
+     * the cart.
+     * @throws IllegalArgumentException if the stock cannot hold the extra
+     * units or the quantity is negative.
+     */
+    private void updateLine(CartLine line, int quantity) {
+        Validator.notNegative(quantity, "qty");
+        Stock stock = line.getStock();
+        int extra = quantity - line.getHeld();
+        if (extra > 0 && !stock.reserve(extra)) {
+            throw new IllegalArgumentException("Insufficient stock for Book ID: " + line.getBook().getId()
+                    + ". Available: " + stock.getAvailable() + ". Requested: " + extra);
+        } else if (extra < 0) {
+            stock.release(-extra);
+        }
+        line.setHeld(quantity);
+
+        int previous = line.getQty();
+        double previousCost = previous * line.getUnitCost();
+        fingerprint += lineFingerprint(line, quantity) - lineFingerprint(line, previous);
         line.setQty(quantity);
+        itemCount += quantity - previous;
+        weight += (quantity - previous) * line.getBook().getWeight();
+        rawCost -= previousCost;
+        line.setUnitCost(stock.getCost());
+        rawCost += quantity * line.getUnitCost();
+        if (itemCount == 0) {
+            // Drop the rounding error accumulated by the running sums.
+            rawCost = 0;
+            weight = 0;
+        }
+    }
+
+    /**
+     * Prices the cart for a customer from its running aggregates, after
+     * re-pricing the lines whose stock cost changed since.
+     * @param customer The customer context for discounts. Must not be null.
+     * @return An immutable quote of the cart as it is now.
+     */
+    public synchronized CartQuote quote(Customer customer) {
+        Validator.notNull(customer, "customer");
+        return quote(customer.getDiscount());
+    }
+
+    /**
+     * Prices the cart for a customer, with shipping computed by a pluggable
+     * calculator.
+     * @param customer The customer context for discounts. Must not be null.
+     * @param destination The delivery address. Must not be null.
+     * @param type The shipping method. Must not be null.
+     * @param calculator The shipping calculator. Must not be null.
+     * @return An immutable quote of the cart as it is now.
+     */
+    public synchronized CartQuote quote(Customer customer, Address destination,
+            ShipTypes type, ShippingCalculator calculator) {
+        Validator.notNull(customer, "customer");
+        Validator.notNull(destination, "destination");
+        Validator.notNull(type, "type");
+        Validator.notNull(calculator, "calculator");
+        refreshPrices();
+        return new CartQuote(itemCount, Math.max(rawCost, 0), Math.max(weight, 0),
+                customer.getDiscount(), calculator.shipCost(this, destination, type));
+    }
+
+    /**
+     * Returns a hash of the cart content: which stock entries it holds and
+     * how many units of each. Two carts with the same lines have the same
+     * fingerprint, whatever the order the lines were added in, so it can key
+     * caches of prices computed from the lines.
+     * @return The fingerprint, zero for an empty cart.
+     */
+    public synchronized long getFingerprint() {
+        return fingerprint;
+    }
+
+    private CartQuote quote(double discount) {
+        refreshPrices();
+        return new CartQuote(itemCount, Math.max(rawCost, 0), Math.max(weight, 0), discount);
     }
 
     /**
@@ -176,12 +366,9 @@ public class Cart implements Serializable {
      * @param discount Percentage (0-100).
      * @return The discounted subtotal.
      */
-    public double subTotal(double discount) {
+    public synchronized double subTotal(double discount) {
         Validator.notOverrangeInclusive(discount, 0, 100, "discount");
-        double aggregateCost = this.getLines().stream()
-                .mapToDouble(line -> line.getQty() * line.getStock().getCost())
-                .sum();
-        return aggregateCost * ((100 - discount) / 100.0);
+        return quote(discount).getSubtotal();
     }
 
     /**
@@ -189,56 +376,159 @@ public class Cart implements Serializable {
      * @param discount User discount to apply to subtotal before tax.
      * @return Calculated tax amount.
      */
-    public double tax(double discount) {
-        return subTotal(discount) * 0.0825;
+    public synchronized double tax(double discount) {
+        Validator.notOverrangeInclusive(discount, 0, 100, "discount");
+        return quote(discount).getTax();
     }
 
     /**
-     * Calculates total shipping cost for the cart.
-     * @param customer The customer receiving the order.
-     * @return Total shipping cost.
+     * Calculates final total including subtotal, tax, and shipping. The
+     * shipping is priced by the cart's {@link #getShippingCalculator()
+     * calculator}, to the customer's address by {@link ShipTypes#AIR}, the
+     * default of the TPC-W buy request.
+     * @param customer The customer context for discounts and shipping.
+     * @return Grand total.
      */
-    private double shipCost(Customer customer) {
+    public synchronized double total(Customer customer) {
         Validator.notNull(customer, "customer");
-        return this.getLines().stream()
-                .mapToDouble(line -> line.getQty() * shippingCostService(
-                        line.getStock().getAddress(),
-                        customer.getAddress(),
-                        ShipTypes.AIR,
-                        line.getStock().getBook().getWeight(),
-                        line.getStock().getBook().getDimensions()))
-                .sum();
+        return quote(customer, customer.getAddress(), ShipTypes.AIR,
+                getShippingCalculator()).getTotal();
+    }
+
+    /** @return Size in bytes of the record written by {@link #pack}. */
+    public synchronized int getPackedSize() {
+        return PACKED_HEADER + PACKED_LINE * linesByBookId.size();
     }
 
     /**
-     * Calculates final total including subtotal, tax, and shipping.
-     * @param customer The customer context for discounts and shipping.
-     * @return Grand total.
+     * Writes the cart as a packed record, using absolute puts so the
+     * position of the buffer is left untouched.
+     * @param buffer The buffer to write to. Must not be null.
+     * @param offset Where the record starts; {@link #getPackedSize()} bytes
+     * must fit from there.
      */
-    public double total(Customer customer) {
-        Validator.notNull(customer, "customer");
-        double discount = customer.getDiscount();
-        return subTotal(discount) + tax(discount) + shipCost(customer);
+    public synchronized void pack(ByteBuffer buffer, int offset) {
+        buffer.putInt(offset, id);
+        buffer.putInt(offset + 4, linesByBookId.size());
+        buffer.putLong(offset + 8, time.getTime());
+        int at = offset + PACKED_HEADER;
+        for (CartLine line : linesByBookId.values()) {
+            buffer.putInt(at, line.getBook().getId());
+            buffer.putInt(at + 4, line.getQty());
+            buffer.putInt(at + 8, line.getHeld());
+            buffer.putDouble(at + 12, line.getUnitCost());
+            at += PACKED_LINE;
+        }
     }
 
     /**
-     * Simulated service for logistics pricing.
+     * Rebuilds a cart from a record written by {@link #pack}. The lines keep
+     * their unit cost and take over the units their record says are held,
+     * without reserving them again.
+     * @param buffer The buffer holding the record. Must not be null.
+     * @param offset Where the record starts.
+     * @param stocks Resolves the stock of a book ID. Must not be null.
+     * @return The cart.
      */
-    private double shippingCostService(Address from, Address to, ShipTypes type, double weight, int[] dimensions) {
-        Validator.notNull(from, "from");
-        Validator.notNull(to, "to");
-        Validator.notNull(type, "type");
-        Validator.notNegative(weight, "weight");
+    public static Cart unpack(ByteBuffer buffer, int offset, IntFunction<Stock> stocks) {
+        Cart cart = new Cart(packedId(buffer, offset), new Date(packedTime(buffer, offset)));
+        int lines = packedLineCount(buffer, offset);
+        int at = offset + PACKED_HEADER;
+        for (int i = 0; i < lines; i++, at += PACKED_LINE) {
+            CartLine line = new CartLine(buffer.getInt(at + 4), stocks.apply(buffer.getInt(at)));
+            line.setHeld(buffer.getInt(at + 8));
+            line.setUnitCost(buffer.getDouble(at + 12));
+            cart.restoreLine(line);
+        }
+        return cart;
+    }
 
-        if (dimensions.length != 3) {
-            throw new IllegalArgumentException("Field dimensions should have length of 3");
+    /** @return The cart ID of a packed record. */
+    public static int packedId(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset);
+    }
+
+    /** @return The time, in milliseconds, of a packed record. */
+    public static long packedTime(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + 8);
+    }
+
+    /** @return The size in bytes of a packed record. */
+    public static int packedSize(ByteBuffer buffer, int offset) {
+        return PACKED_HEADER + PACKED_LINE * packedLineCount(buffer, offset);
+    }
+
+    /**
+     * Releases the stock held by the lines of a packed record, as
+     * {@link #clear()} does for a live cart.
+     * @param buffer The buffer holding the record. Must not be null.
+     * @param offset Where the record starts.
+     * @param stocks Resolves the stock of a book ID. Must not be null.
+     */
+    public static void releasePacked(ByteBuffer buffer, int offset, IntFunction<Stock> stocks) {
+        int lines = packedLineCount(buffer, offset);
+        int at = offset + PACKED_HEADER;
+        for (int i = 0; i < lines; i++, at += PACKED_LINE) {
+            stocks.apply(buffer.getInt(at)).release(buffer.getInt(at + 8));
         }
+    }
 
-        int aggregateQuantity = getLines().stream()
-                .mapToInt(CartLine::getQty)
-                .sum();
+    private static int packedLineCount(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + 4);
+    }
 
-        return 3.00 + (1.00 * aggregateQuantity);
+    /**
+     * Re-prices the lines at the current cost of their stock, so a cart
+     * never charges the price a line had when it was last changed.
+     */
+    private void refreshPrices() {
+        for (CartLine line : linesByBookId.values()) {
+            double cost = line.getStock().getCost();
+            if (cost != line.getUnitCost()) {
+                rawCost += line.getQty() * (cost - line.getUnitCost());
+                line.setUnitCost(cost);
+            }
+        }
+    }
+
+    /** Adds an unpacked line and its share of the running aggregates. */
+    private void restoreLine(CartLine line) {
+        int qty = line.getQty();
+        linesByBookId.put(line.getBook().getId(), line);
+        itemCount += qty;
+        weight += qty * line.getBook().getWeight();
+        rawCost += qty * line.getUnitCost();
+        fingerprint += lineFingerprint(line, qty);
+    }
+
+    /**
+     * Hashes one line at a given quantity; lines are summed into the cart
+     * fingerprint so that it does not depend on their order.
+     */
+    private static long lineFingerprint(CartLine line, int quantity) {
+        if (quantity == 0) {
+            return 0;
+        }
+        Stock stock = line.getStock();
+        long h = ((long) stock.getIdBookstore() << 40) ^ ((long) line.getBook().getId() << 20)
+                ^ stock.getAddress().getId() ^ ((long) quantity << 48);
+        // 64-bit finalizer of MurmurHash3, to spread nearby values.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3f53fe1a85bL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Validates the shipping attributes of a book entering the cart.
+     */
+    private static void checkShippable(Book book) {
+        Validator.notNegative(book.getWeight(), "weight");
+        if (book.getDimensions().length != 3) {
+            throw new IllegalArgumentException("Field dimensions should have length of 3");
+        }
     }
 
 }
@@ -69,6 +69,8 @@ public class CartLine implements Serializable {
 
     private int qty;
     private final Stock stock;
+    private double unitCost;
+    private int held;
 
     /**
      * Constructs a new CartLine with validation.
@@ -80,6 +82,7 @@ public class CartLine implements Serializable {
     public CartLine(int qty, Stock stock) {
         this.qty = Validator.notNegative(qty, "qty");
         this.stock = Validator.notNull(stock, "stock");
+        this.unitCost = stock.getCost();
     }
 
     /**
@@ -113,4 +116,32 @@ public class CartLine implements Serializable {
         return stock;
     }
 
+    /**
+     * @return The unit cost this line was priced at by its {@link Cart}.
+     */
+    double getUnitCost() {
+        return unitCost;
+    }
+
+    /**
+     * @param unitCost The unit cost the line is priced at.
+     */
+    void setUnitCost(double unitCost) {
+        this.unitCost = unitCost;
+    }
+
+    /**
+     * @return The units of this line currently held in its stock.
+     */
+    int getHeld() {
+        return held;
+    }
+
+    /**
+     * @param held The units of this line held in its stock.
+     */
+    void setHeld(int held) {
+        this.held = held;
+    }
+
 }
@@ -0,0 +1,102 @@
+package dominio;
+
+import util.Validator;
+
+import java.io.Serializable;
+
+/**
+ * Immutable price quote of a {@link Cart} for a given customer.
+ * <p>
+ * A quote is computed once from the running aggregates of the cart and then
+ * shared by everything that needs the amounts of the same checkout: the
+ * credit card transaction and the {@link Order}.
+ * </p>
+ */
+public final class CartQuote implements Serializable {
+
+    private static final long serialVersionUID = 1984533109486267311L;
+
+    /** Sales tax rate applied to the discounted subtotal. */
+    public static final double TAX_RATE = 0.0825;
+
+    private final int itemCount;
+    private final double rawCost;
+    private final double weight;
+    private final double discount;
+    private final double subtotal;
+    private final double tax;
+    private final double shipCost;
+    private final double total;
+
+    /**
+     * Prices a cart from its aggregates with the flat shipping rate of
+     * {@link ShippingCalculator#FLAT}.
+     * @param itemCount Number of units in the cart. Must not be negative.
+     * @param rawCost Cost of the units before discount. Must not be negative.
+     * @param weight Total weight of the units. Must not be negative.
+     * @param discount Customer discount percentage (0-100).
+     */
+    public CartQuote(int itemCount, double rawCost, double weight, double discount) {
+        this(itemCount, rawCost, weight, discount, itemCount * (3.00 + itemCount));
+    }
+
+    /**
+     * Prices a cart from its aggregates and an already computed shipping cost.
+     * @param itemCount Number of units in the cart. Must not be negative.
+     * @param rawCost Cost of the units before discount. Must not be negative.
+     * @param weight Total weight of the units. Must not be negative.
+     * @param discount Customer discount percentage (0-100).
+     * @param shipCost The shipping cost. Must not be negative.
+     */
+    public CartQuote(int itemCount, double rawCost, double weight, double discount,
+            double shipCost) {
+        this.itemCount = Validator.notNegative(itemCount, "itemCount");
+        this.rawCost = Validator.notNegative(rawCost, "rawCost");
+        this.weight = Validator.notNegative(weight, "weight");
+        this.discount = Validator.notOverrangeInclusive(discount, 0, 100, "discount");
+        this.shipCost = Validator.notNegative(shipCost, "shipCost");
+        this.subtotal = rawCost * ((100 - discount) / 100.0);
+        this.tax = subtotal * TAX_RATE;
+        this.total = subtotal + tax + shipCost;
+    }
+
+    /** @return Number of units in the cart. */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /** @return Cost of the units before discount. */
+    public double getRawCost() {
+        return rawCost;
+    }
+
+    /** @return Total weight of the units. */
+    public double getWeight() {
+        return weight;
+    }
+
+    /** @return The customer discount percentage applied. */
+    public double getDiscount() {
+        return discount;
+    }
+
+    /** @return The discounted subtotal. */
+    public double getSubtotal() {
+        return subtotal;
+    }
+
+    /** @return The sales tax over the subtotal. */
+    public double getTax() {
+        return tax;
+    }
+
+    /** @return The shipping cost. */
+    public double getShipCost() {
+        return shipCost;
+    }
+
+    /** @return Subtotal plus tax plus shipping. */
+    public double getTotal() {
+        return total;
+    }
+}
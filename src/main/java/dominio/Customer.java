@@ -78,8 +78,8 @@ public class Customer implements Serializable {
     private final String email;
     private final Date since;
     private final Date lastVisit;
-    private Date login;
-    private Date expiration;
+    private long login;
+    private long expiration;
     private final double discount;
     private final double balance;
     private final double ytdPmt;
@@ -132,8 +132,8 @@ public class Customer implements Serializable {
         // Defensive copying for all Date objects
         this.since = new Date(Validator.notNull(since,"since").getTime());
         this.lastVisit = new Date(Validator.notNull(lastVisit,"lastVisit").getTime());
-        this.login = new Date(Validator.notNull(login,"login").getTime());
-        this.expiration = new Date(Validator.notNull(expiration,"expiration").getTime());
+        this.login = Validator.notNull(login,"login").getTime();
+        this.expiration = Validator.notNull(expiration,"expiration").getTime();
         this.birthdate = new Date(Validator.notNull(birthdate,"birthdate").getTime());
 
         this.mostRecentOrder = null;
@@ -174,12 +174,23 @@ public class Customer implements Serializable {
 
     /** @param login Sets a copy of the current login timestamp. */
     public final void setLogin(Date login) {
-        this.login = new Date(Validator.notNull(login, "login").getTime());
+        this.login = Validator.notNull(login, "login").getTime();
     }
 
     /** @param expiration Sets a copy of the session expiration. */
     public final void setExpiration(Date expiration) {
-        this.expiration = new Date(Validator.notNull(expiration, "expiration").getTime());
+        this.expiration = Validator.notNull(expiration, "expiration").getTime();
+    }
+
+    /**
+     * Sets the login and expiration timestamps of the current session
+     * without allocating.
+     * @param login The login time, in epoch milliseconds.
+     * @param expiration The expiration time, in epoch milliseconds.
+     */
+    public final void setSession(long login, long expiration) {
+        this.login = login;
+        this.expiration = expiration;
     }
 
     /**
@@ -218,7 +229,7 @@ public class Customer implements Serializable {
      * @return A {@link Date} object of the current login.
      */
     public final Date getLogin() {
-        return new Date(login.getTime());
+        return new Date(login);
     }
 
     /**
@@ -226,7 +237,7 @@ public class Customer implements Serializable {
      * @return A {@link Date} object representing session expiration.
      */
     public final Date getExpiration() {
-        return new Date(expiration.getTime());
+        return new Date(expiration);
     }
 
     /**
@@ -79,7 +79,7 @@ public class Order implements Serializable {
     private final double total;
     private final ShipTypes shipType;
     private final Date shipDate;
-    private final StatusTypes status;
+    private volatile StatusTypes status;
     private final Address billingAddress;
     private final Address shippingAddress;
     private final CCTransaction cc;
@@ -102,14 +102,42 @@ public class Order implements Serializable {
     public Order(int id, Customer customer, Date date, Cart cart,
             String comment, ShipTypes shipType, Date shipDate, StatusTypes status,
             Address billingAddress, Address shippingAddress, CCTransaction cc) {
+        this(id, customer, date, cart, comment, shipType, shipDate, status,
+                billingAddress, shippingAddress, cc, null,
+                Validator.notNull(cart, "cart").quote(customer));
+    }
+
+    /**
+     * Constructs a new Order whose lines are recorded in a shared columnar store.
+     * @param id The unique order ID.
+     * @param customer The customer placing the order. Must not be null.
+     * @param date The order placement date. Must not be null.
+     * @param cart The shopping cart containing the items. Must not be null.
+     * @param comment An optional comment for the order lines.
+     * @param shipType The selected shipping method. Must not be null.
+     * @param shipDate The scheduled shipping date. Must not be null.
+     * @param status The current status of the order. Must not be null.
+     * @param billingAddress The address for billing. Must not be null.
+     * @param shippingAddress The address for delivery. Must not be null.
+     * @param cc The credit card transaction details. Must not be null.
+     * @param lineStore The store receiving the order lines, or null to keep
+     *                  them as individual {@link OrderLine} objects.
+     * @param quote The price quote of the cart for the customer, shared with
+     *              the credit card transaction. Must not be null.
+     */
+    public Order(int id, Customer customer, Date date, Cart cart,
+            String comment, ShipTypes shipType, Date shipDate, StatusTypes status,
+            Address billingAddress, Address shippingAddress, CCTransaction cc,
+            OrderLineStore lineStore, CartQuote quote) {
         this.id = Validator.notNegative(id, "id");
         this.customer = Validator.notNull(customer, "customer");
         this.date = new Date(Validator.notNull(date, "date").getTime());
 
         Validator.notNull(cart, "cart");
-        this.subtotal = cart.subTotal(customer.getDiscount());
+        Validator.notNull(quote, "quote");
+        this.subtotal = quote.getSubtotal();
         this.tax = 8.25;
-        this.total = cart.total(customer);
+        this.total = quote.getTotal();
 
         this.shipType = Validator.notNull(shipType, "shipType");
         this.shipDate = new Date(Validator.notNull(shipDate, "shipDate").getTime());
@@ -121,9 +149,16 @@ public class Order implements Serializable {
 
         Validator.notNull(comment, "comment");
 
+        if (lineStore != null) {
+            this.lines = lineStore.append(id, customer.getId(), cart.getLines(),
+                    customer.getDiscount(), comment);
+            return;
+        }
+
         // Convert CartLines to OrderLines
-        ArrayList<OrderLine> tempLines = new ArrayList<>(cart.getLines().size());
-        for (CartLine cartLine : cart.getLines()) {
+        List<CartLine> cartLines = cart.getLines();
+        ArrayList<OrderLine> tempLines = new ArrayList<>(cartLines.size());
+        for (CartLine cartLine : cartLines) {
             OrderLine line = new OrderLine(
                     cartLine.getBook(),
                     cartLine.getQty(),
@@ -134,6 +169,42 @@ public class Order implements Serializable {
         this.lines = Collections.unmodifiableList(tempLines);
     }
 
+    /**
+     * Restores an Order from previously recorded values, e.g. when reading it
+     * back from an archive. No cart is involved and totals are taken as given.
+     * @param id The unique order ID.
+     * @param customer The customer who placed the order. Must not be null.
+     * @param date The order placement date. Must not be null.
+     * @param subtotal The recorded subtotal.
+     * @param tax The recorded tax.
+     * @param total The recorded grand total.
+     * @param shipType The selected shipping method. Must not be null.
+     * @param shipDate The scheduled shipping date. Must not be null.
+     * @param status The order status. Must not be null.
+     * @param billingAddress The address for billing. Must not be null.
+     * @param shippingAddress The address for delivery. Must not be null.
+     * @param cc The credit card transaction details. Must not be null.
+     * @param lines The order lines. Must not be null.
+     */
+    public Order(int id, Customer customer, Date date, double subtotal,
+            double tax, double total, ShipTypes shipType, Date shipDate,
+            StatusTypes status, Address billingAddress, Address shippingAddress,
+            CCTransaction cc, List<OrderLine> lines) {
+        this.id = Validator.notNegative(id, "id");
+        this.customer = Validator.notNull(customer, "customer");
+        this.date = new Date(Validator.notNull(date, "date").getTime());
+        this.subtotal = subtotal;
+        this.tax = tax;
+        this.total = total;
+        this.shipType = Validator.notNull(shipType, "shipType");
+        this.shipDate = new Date(Validator.notNull(shipDate, "shipDate").getTime());
+        this.status = Validator.notNull(status, "status");
+        this.billingAddress = Validator.notNull(billingAddress, "billingAddress");
+        this.shippingAddress = Validator.notNull(shippingAddress, "shippingAddress");
+        this.cc = Validator.notNull(cc, "cc");
+        this.lines = Collections.unmodifiableList(new ArrayList<>(Validator.notNull(lines, "lines")));
+    }
+
     /** @return The unique order identifier. */
     public int getId() {
         return id;
@@ -179,6 +250,37 @@ public class Order implements Serializable {
         return status;
     }
 
+    /**
+     * Moves the order to the next stage of its lifecycle. Allowed transitions are
+     * PENDING to PROCESSING or DENIED, and PROCESSING to SHIPPED or DENIED.
+     * @param next The new status. Must not be null.
+     * @throws IllegalStateException if the transition is not allowed.
+     */
+    public synchronized void transitionTo(StatusTypes next) {
+        Validator.notNull(next, "next");
+        if (!canTransition(status, next)) {
+            throw new IllegalStateException("Order " + id + " cannot move from "
+                    + status + " to " + next);
+        }
+        this.status = next;
+    }
+
+    private static boolean canTransition(StatusTypes from, StatusTypes to) {
+        switch (from) {
+            case PENDING:
+                return to == StatusTypes.PROCESSING || to == StatusTypes.DENIED;
+            case PROCESSING:
+                return to == StatusTypes.SHIPPED || to == StatusTypes.DENIED;
+            default:
+                return false;
+        }
+    }
+
+    /** @return Whether the order has reached a final status (SHIPPED or DENIED). */
+    public boolean isFinished() {
+        return isShipped() || isDenined();
+    }
+
     // Status Helper Methods
     public boolean isDenined() {
         return this.getStatus().equals(StatusTypes.DENIED);
@@ -0,0 +1,300 @@
+package dominio;
+
+import util.Validator;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntPredicate;
+
+/**
+ * Append-only columnar storage for the lines of every order of a bookstore.
+ * <p>
+ * Instead of one {@link OrderLine} object per item, each line is stored as a
+ * row across parallel primitive arrays (book ID, quantity, discount and the
+ * owning order), while the order comment and customer are kept once per
+ * order. {@link Order#getLines()} returns a lightweight view over these
+ * columns that materializes {@link OrderLine} objects on access.
+ * </p>
+ * <p>
+ * Aggregation kernels such as {@link #sumQtyByBook(int, boolean[], IntPredicate)}
+ * scan the columns in tight loops. The columns are published through a
+ * volatile reference, replaced whenever they grow, and rows are published by
+ * a volatile order count after being written, so readers never lock and
+ * always observe a consistent prefix while a single writer appends.
+ * </p>
+ * <p>
+ * A serialized line view is replaced by a copy of its own lines, so an
+ * {@link Order} never drags the whole store along.
+ * </p>
+ */
+public class OrderLineStore implements Serializable {
+
+    private static final long serialVersionUID = 2875208064356207418L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The columns of the store. A new instance replaces the old one when
+     * the store grows; the arrays of an instance are only written past the
+     * rows already published.
+     */
+    private static final class Columns implements Serializable {
+
+        private static final long serialVersionUID = -5170622948839317020L;
+
+        // Per-line columns
+        final int[] lineBookIds;
+        final int[] lineQtys;
+        final float[] lineDiscounts;
+        final int[] lineOrders;
+
+        // Per-order columns; orderFirstLine[i + 1] is the end of order i's lines
+        final int[] orderIds;
+        final int[] orderCustomerIds;
+        final int[] orderFirstLine;
+        final String[] orderComments;
+
+        // One reference per distinct book, used to materialize OrderLine views
+        final Book[] booksById;
+
+        Columns(int lines, int orders, int books, Columns from) {
+            if (from == null) {
+                lineBookIds = new int[lines];
+                lineQtys = new int[lines];
+                lineDiscounts = new float[lines];
+                lineOrders = new int[lines];
+                orderIds = new int[orders];
+                orderCustomerIds = new int[orders];
+                orderFirstLine = new int[orders + 1];
+                orderComments = new String[orders];
+                booksById = new Book[books];
+            } else {
+                lineBookIds = Arrays.copyOf(from.lineBookIds, lines);
+                lineQtys = Arrays.copyOf(from.lineQtys, lines);
+                lineDiscounts = Arrays.copyOf(from.lineDiscounts, lines);
+                lineOrders = Arrays.copyOf(from.lineOrders, lines);
+                orderIds = Arrays.copyOf(from.orderIds, orders);
+                orderCustomerIds = Arrays.copyOf(from.orderCustomerIds, orders);
+                orderFirstLine = Arrays.copyOf(from.orderFirstLine, orders + 1);
+                orderComments = Arrays.copyOf(from.orderComments, orders);
+                booksById = Arrays.copyOf(from.booksById, books);
+            }
+        }
+    }
+
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY, INITIAL_CAPACITY,
+            INITIAL_CAPACITY, null);
+
+    private int lineCount;
+    private volatile int orderCount;
+
+    /**
+     * Appends the lines of a new order.
+     * @param orderId The ID of the order owning the lines.
+     * @param customerId The ID of the customer who placed the order.
+     * @param lines The cart lines to record. Must not be null.
+     * @param discount The customer discount applied to every line (0-100).
+     * @param comment The order comment, stored once for all lines. Must not be null.
+     * @return A read-only view of the appended lines.
+     */
+    public synchronized List<OrderLine> append(int orderId, int customerId,
+            Collection<CartLine> lines, double discount, String comment) {
+        Validator.notNull(lines, "lines");
+        Validator.notNull(comment, "comment");
+        Validator.notOverrangeInclusive(discount, 0, 100, "discount");
+
+        int seq = orderCount;
+        int maxBookId = -1;
+        for (CartLine line : lines) {
+            maxBookId = Math.max(maxBookId, line.getBook().getId());
+        }
+        Columns c = ensureCapacity(lineCount + lines.size(), seq + 1, maxBookId + 1);
+
+        int first = lineCount;
+        for (CartLine line : lines) {
+            Book book = line.getBook();
+            c.booksById[book.getId()] = book;
+            c.lineBookIds[lineCount] = book.getId();
+            c.lineQtys[lineCount] = line.getQty();
+            c.lineDiscounts[lineCount] = (float) discount;
+            c.lineOrders[lineCount] = seq;
+            lineCount++;
+        }
+        c.orderIds[seq] = orderId;
+        c.orderCustomerIds[seq] = customerId;
+        c.orderComments[seq] = comment;
+        c.orderFirstLine[seq] = first;
+        c.orderFirstLine[seq + 1] = lineCount;
+
+        orderCount = seq + 1;
+        return new Lines(this, seq, first, lineCount);
+    }
+
+    /** @return The number of orders recorded. */
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    /**
+     * Sums the quantity sold per book over the recorded orders.
+     * @param bookCount The size of the result, i.e. one past the highest book ID.
+     * @param bookMask Books to include, indexed by book ID, or null for all.
+     * @param orderFilter Selects orders by position, i.e. the order of
+     * their {@link #append} call, or null for all.
+     * @return Quantities indexed by book ID.
+     */
+    public int[] sumQtyByBook(int bookCount, boolean[] bookMask, IntPredicate orderFilter) {
+        int orders = orderCount;
+        Columns c = columns;
+        int[] firstLine = c.orderFirstLine;
+        int[] bookIds = c.lineBookIds;
+        int[] qtys = c.lineQtys;
+
+        int[] sums = new int[bookCount];
+        for (int seq = 0; seq < orders; seq++) {
+            if (orderFilter != null && !orderFilter.test(seq)) {
+                continue;
+            }
+            for (int l = firstLine[seq], end = firstLine[seq + 1]; l < end; l++) {
+                int bookId = bookIds[l];
+                if (bookId < bookCount && (bookMask == null || bookMask[bookId])) {
+                    sums[bookId] += qtys[l];
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Sums the quantity sold per book over the orders of a set of customers.
+     * @param bookCount The size of the result, i.e. one past the highest book ID.
+     * @param customers The customer IDs whose orders are included.
+     * @return Quantities indexed by book ID.
+     */
+    public int[] sumQtyByBookForCustomers(int bookCount, BitSet customers) {
+        return sumQtyByBook(bookCount, null, ordersOf(customers));
+    }
+
+    /**
+     * Collects the customers who bought a book within the most recent orders.
+     * @param bookId The book ID.
+     * @param recentOrders How many of the newest orders to inspect.
+     * @return The IDs of the matching customers.
+     */
+    public BitSet customersWhoBought(int bookId, int recentOrders) {
+        int orders = orderCount;
+        Columns c = columns;
+        int[] customerIds = c.orderCustomerIds;
+        int[] firstLine = c.orderFirstLine;
+        int[] bookIds = c.lineBookIds;
+
+        BitSet customers = new BitSet();
+        int oldest = Math.max(0, orders - recentOrders);
+        for (int seq = orders - 1; seq >= oldest; seq--) {
+            for (int l = firstLine[seq], end = firstLine[seq + 1]; l < end; l++) {
+                if (bookIds[l] == bookId) {
+                    customers.set(customerIds[seq]);
+                    break;
+                }
+            }
+        }
+        return customers;
+    }
+
+    /**
+     * Builds an order filter matching the orders placed by the given customers.
+     */
+    private IntPredicate ordersOf(BitSet customers) {
+        int orders = orderCount;
+        int[] customerIds = columns.orderCustomerIds;
+        BitSet selected = new BitSet();
+        for (int seq = 0; seq < orders; seq++) {
+            if (customers.get(customerIds[seq])) {
+                selected.set(seq);
+            }
+        }
+        return selected::get;
+    }
+
+    /**
+     * Grows the columns, if needed, so that they hold the given numbers of
+     * lines, orders and books.
+     * @return The columns to write to.
+     */
+    private Columns ensureCapacity(int lines, int orders, int books) {
+        Columns c = columns;
+        int lineCapacity = c.lineBookIds.length;
+        int orderCapacity = c.orderIds.length;
+        int bookCapacity = c.booksById.length;
+        if (lines <= lineCapacity && orders <= orderCapacity && books <= bookCapacity) {
+            return c;
+        }
+        c = new Columns(
+                lines > lineCapacity ? Math.max(lines, lineCapacity * 2) : lineCapacity,
+                orders > orderCapacity ? Math.max(orders, orderCapacity * 2) : orderCapacity,
+                books > bookCapacity ? Math.max(books, bookCapacity * 2) : bookCapacity,
+                c);
+        columns = c;
+        return c;
+    }
+
+    /**
+     * Read-only view over a range of rows, materializing {@link OrderLine}
+     * objects on access.
+     */
+    private static final class Lines extends AbstractList<OrderLine>
+            implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = -3319260781372690941L;
+
+        private final OrderLineStore store;
+        private final int seq;
+        private final int from;
+        private final int to;
+
+        Lines(OrderLineStore store, int seq, int from, int to) {
+            this.store = store;
+            this.seq = seq;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public OrderLine get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            // Reading the order count before the columns makes the rows of
+            // every published order visible.
+            if (seq >= store.orderCount) {
+                throw new IllegalStateException("Lines read before being published");
+            }
+            Columns c = store.columns;
+            int row = from + index;
+            return new OrderLine(
+                    c.booksById[c.lineBookIds[row]],
+                    c.lineQtys[row],
+                    c.lineDiscounts[row],
+                    c.orderComments[c.lineOrders[row]]);
+        }
+
+        /**
+         * Serializes a copy of these lines only, not the whole store.
+         */
+        private Object writeReplace() {
+            return Collections.unmodifiableList(new ArrayList<>(this));
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
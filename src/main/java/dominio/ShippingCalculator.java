@@ -0,0 +1,26 @@
+package dominio;
+
+/**
+ * Prices the shipping of a cart.
+ * <p>
+ * Implementations are plugged into a bookstore's checkout; {@link #FLAT} is
+ * the default and charges every unit 3.00 plus 1.00 per unit in the cart,
+ * regardless of addresses, weight or shipping type.
+ * </p>
+ */
+public interface ShippingCalculator {
+
+    /** The default flat rate: {@code units * (3.00 + units)}. */
+    ShippingCalculator FLAT = (cart, destination, type) -> {
+        int units = cart.getItemCount();
+        return units * (3.00 + units);
+    };
+
+    /**
+     * @param cart The cart to ship. Must not be null.
+     * @param destination The delivery address. Must not be null.
+     * @param type The shipping method. Must not be null.
+     * @return The shipping cost of the whole cart.
+     */
+    double shipCost(Cart cart, Address destination, ShipTypes type);
+}
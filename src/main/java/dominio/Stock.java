@@ -3,9 +3,20 @@ package dominio;
 
 import util.Validator;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents the inventory level of a specific book at a specific bookstore location.
  * This class tracks the availability, purchase cost, and physical origin of the stock.
+ * <p>
+ * Carts place soft holds on the stock with {@link #reserve(int)} while items
+ * sit in them, so the units they hold cannot be sold to anyone else. A hold
+ * is either turned into a sale with {@link #commitReservation(int)} at
+ * checkout or returned with {@link #release(int)}. The quantity on hand and
+ * the reserved quantity are packed into a single atomic word and updated
+ * with compare-and-set, so reserving never blocks.
+ * </p>
  * <br><img src="./doc-files/Stock.png" alt="Stock Diagram">
  */
 public class Stock {
@@ -15,7 +26,9 @@ public class Stock {
     private final Address address;
     private final Book book;
     private double cost;
-    private int qty;
+    private final AtomicLong levels = new AtomicLong();
+    private static final StockListener[] NO_LISTENERS = new StockListener[0];
+    private volatile StockListener[] listeners = NO_LISTENERS;
 
     /**
      * Constructs a Stock entry with mandatory inventory and cost validation.
@@ -32,7 +45,7 @@ public class Stock {
         this.address = Validator.notNull(address, "address");
         this.book = Validator.notNull(book, "book");
         this.cost = Validator.notNegative(cost, "cost");
-        this.qty = Validator.notNegative(qty, "qty");
+        levels.set(pack(Validator.notNegative(qty, "qty"), 0));
     }
 
     /** @return The {@link Book} associated with this stock. */
@@ -43,15 +56,103 @@ public class Stock {
     /**
      * Increments the current stock quantity.
      * @param amount The quantity to add. Can be negative for removals.
-     * @throws IllegalArgumentException if the resulting quantity would be negative.
+     * @throws IllegalArgumentException if the resulting quantity would be
+     * negative or below the units held by carts.
      */
     public void addQty(int amount) {
-        int result = this.qty + amount;
-        if (result < 0) {
-            throw new IllegalArgumentException("Resulting stock quantity cannot be negative. Current: "
-                    + this.qty + ", Adjustment: " + amount);
+        while (true) {
+            long current = levels.get();
+            int qty = qtyOf(current);
+            int result = qty + amount;
+            if (result < 0) {
+                throw new IllegalArgumentException("Resulting stock quantity cannot be negative. Current: "
+                        + qty + ", Adjustment: " + amount);
+            }
+            if (result < reservedOf(current)) {
+                throw new IllegalArgumentException("Resulting stock quantity cannot be below the units held by carts. Current: "
+                        + qty + ", Adjustment: " + amount + ", Held: " + reservedOf(current));
+            }
+            if (levels.compareAndSet(current, pack(result, reservedOf(current)))) {
+                qtyChanged(qty, result);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Holds units for a cart if enough of them are neither sold nor held.
+     * @param amount The number of units to hold. Must be non-negative.
+     * @return Whether the units were held.
+     */
+    public boolean reserve(int amount) {
+        Validator.notNegative(amount, "amount");
+        while (true) {
+            long current = levels.get();
+            int reserved = reservedOf(current);
+            if (qtyOf(current) - reserved < amount) {
+                return false;
+            }
+            if (levels.compareAndSet(current, pack(qtyOf(current), reserved + amount))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns held units to the available quantity.
+     * @param amount The number of units to release. Must be non-negative.
+     * @throws IllegalArgumentException if fewer units are held.
+     */
+    public void release(int amount) {
+        Validator.notNegative(amount, "amount");
+        while (true) {
+            long current = levels.get();
+            int reserved = reservedOf(current);
+            if (reserved < amount) {
+                throw new IllegalArgumentException("Cannot release more than reserved. Reserved: "
+                        + reserved + ", Release: " + amount);
+            }
+            if (levels.compareAndSet(current, pack(qtyOf(current), reserved - amount))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Turns held units into a sale, removing them from the quantity on hand.
+     * @param amount The number of held units sold. Must be non-negative.
+     * @throws IllegalArgumentException if fewer units are held or on hand.
+     */
+    public void commitReservation(int amount) {
+        Validator.notNegative(amount, "amount");
+        while (true) {
+            long current = levels.get();
+            int qty = qtyOf(current);
+            int reserved = reservedOf(current);
+            if (reserved < amount || qty < amount) {
+                throw new IllegalArgumentException("Cannot commit more than reserved. Reserved: "
+                        + reserved + ", Current: " + qty + ", Commit: " + amount);
+            }
+            if (levels.compareAndSet(current, pack(qty - amount, reserved - amount))) {
+                qtyChanged(qty, qty - amount);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Undoes a {@link #commitReservation(int)}: the units are put back on
+     * hand and held again. Used to roll back a checkout that failed half way.
+     */
+    void revertCommit(int amount) {
+        while (true) {
+            long current = levels.get();
+            if (levels.compareAndSet(current, pack(qtyOf(current) + amount,
+                    reservedOf(current) + amount))) {
+                qtyChanged(qtyOf(current), qtyOf(current) + amount);
+                return;
+            }
         }
-        this.qty = result;
     }
 
     /** @return The unit cost of the book for the bookstore. */
@@ -64,20 +165,62 @@ public class Stock {
      * @throws IllegalArgumentException if cost is negative.
      */
     public void setCost(double cost) {
+        setCost(cost, true);
+    }
+
+    /**
+     * Sets the unit cost, optionally without notifying the listener. Bulk
+     * updates use it to refresh derived views once at the end.
+     * @param cost The new unit cost. Must be non-negative.
+     * @param notify Whether to notify the listener of a change.
+     * @return Whether the cost changed.
+     * @throws IllegalArgumentException if cost is negative.
+     */
+    public boolean setCost(double cost, boolean notify) {
+        double previous = this.cost;
         this.cost = Validator.notNegative(cost, "cost");
+        if (notify && previous != cost) {
+            for (StockListener listener : listeners) {
+                listener.costChanged(this, previous);
+            }
+        }
+        return previous != cost;
     }
 
-    /** @return The current available quantity. */
+    /** @return The quantity on hand, including the units held by carts. */
     public int getQty() {
-        return qty;
+        return qtyOf(levels.get());
+    }
+
+    /** @return The units currently held by carts. */
+    public int getReserved() {
+        return reservedOf(levels.get());
+    }
+
+    /** @return The units on hand that no cart holds. */
+    public int getAvailable() {
+        long current = levels.get();
+        return Math.max(0, qtyOf(current) - reservedOf(current));
     }
 
     /**
      * @param qty The new total quantity. Must be non-negative.
-     * @throws IllegalArgumentException if qty is negative.
+     * @throws IllegalArgumentException if qty is negative or below the units
+     * held by carts.
      */
     public void setQty(int qty) {
-        this.qty = Validator.notNegative(qty, "qty");
+        Validator.notNegative(qty, "qty");
+        while (true) {
+            long current = levels.get();
+            if (qty < reservedOf(current)) {
+                throw new IllegalArgumentException("Stock quantity cannot be below the units held by carts. Quantity: "
+                        + qty + ", Held: " + reservedOf(current));
+            }
+            if (levels.compareAndSet(current, pack(qty, reservedOf(current)))) {
+                qtyChanged(qtyOf(current), qty);
+                return;
+            }
+        }
     }
 
     /** @return The bookstore ID. */
@@ -85,6 +228,40 @@ public class Stock {
         return idBookstore;
     }
 
+    /**
+     * Registers a further listener notified when this entry changes. A
+     * listener already registered is not added twice.
+     * @param listener The listener. Must not be null.
+     */
+    public synchronized void addListener(StockListener listener) {
+        Validator.notNull(listener, "listener");
+        for (StockListener registered : listeners) {
+            if (registered == listener) {
+                return;
+            }
+        }
+        StockListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Stops notifying a listener of changes to this entry. Does nothing if
+     * the listener is not registered.
+     * @param listener The listener.
+     */
+    public synchronized void removeListener(StockListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                StockListener[] updated = new StockListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+                listeners = updated.length == 0 ? NO_LISTENERS : updated;
+                return;
+            }
+        }
+    }
+
     /** @return The physical address where this stock is stored. */
     public Address getAddress() {
         return address;
@@ -92,6 +269,27 @@ public class Stock {
 
     @Override
     public String toString() {
-        return "Stock{" + "idBookstore=" + idBookstore + ", bookId=" + book.getId() + ", cost=" + cost + ", qty=" + qty + '}';
+        return "Stock{" + "idBookstore=" + idBookstore + ", bookId=" + book.getId() + ", cost=" + cost
+                + ", qty=" + getQty() + ", reserved=" + getReserved() + '}';
+    }
+
+    private void qtyChanged(int previous, int qty) {
+        if (previous != qty) {
+            for (StockListener listener : listeners) {
+                listener.qtyChanged(this, previous, qty);
+            }
+        }
+    }
+
+    private static long pack(int qty, int reserved) {
+        return ((long) qty << 32) | (reserved & 0xFFFFFFFFL);
+    }
+
+    private static int qtyOf(long levels) {
+        return (int) (levels >>> 32);
+    }
+
+    private static int reservedOf(long levels) {
+        return (int) levels;
     }
 }
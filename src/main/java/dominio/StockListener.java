@@ -0,0 +1,26 @@
+package dominio;
+
+/**
+ * Receives notifications when a {@link Stock} entry changes.
+ * Used by the service layer to keep derived views (such as price indexes)
+ * in sync with the inventory without scanning every bookstore.
+ */
+public interface StockListener {
+
+    /**
+     * Called after the unit cost of a stock entry has changed.
+     * @param stock The stock entry that was updated.
+     * @param previousCost The cost before the update.
+     */
+    void costChanged(Stock stock, double previousCost);
+
+    /**
+     * Called after the quantity on hand of a stock entry has changed. Holds
+     * placed by carts do not change it.
+     * @param stock The stock entry that was updated.
+     * @param previousQty The quantity before the update.
+     * @param qty The quantity set by the update.
+     */
+    default void qtyChanged(Stock stock, int previousQty, int qty) {
+    }
+}
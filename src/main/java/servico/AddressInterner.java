@@ -0,0 +1,146 @@
+package servico;
+
+import dominio.Address;
+import util.Validator;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Index of the distinct addresses, looked up by their components.
+ * <p>
+ * The index is an open-addressing table of address IDs probed linearly.
+ * The hash mixes every character of the five text fields, the length of
+ * each field and the country ID through FNV-1a and a final avalanche, so
+ * addresses that only differ by swapped or shifted text land far apart. A
+ * lookup takes the components as they are, without building a probe
+ * {@link Address}: the hash of each entry is kept next to its ID and only
+ * an entry with the same hash is compared field by field against the
+ * canonical address. Not thread-safe.
+ * </p>
+ */
+public class AddressInterner {
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final IntFunction<Address> addresses;
+    // Address ID plus one per slot, zero when free.
+    private int[] slots = new int[1024];
+    private int[] hashes = new int[256];
+    private int size;
+
+    /**
+     * @param addresses Resolves an address ID to the canonical address.
+     * Must not be null.
+     */
+    public AddressInterner(IntFunction<Address> addresses) {
+        this.addresses = Validator.notNull(addresses, "addresses");
+    }
+
+    /**
+     * @return The ID of the address with these components, or -1 if none.
+     */
+    public int find(String street1, String street2, String city, String state,
+            String zip, int countryId) {
+        int hash = hash(street1, street2, city, state, zip, countryId);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash
+                    && matches(addresses.apply(id), street1, street2, city, state, zip, countryId)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Registers an address. A later address equal to an indexed one takes
+     * its place in lookups.
+     * @param address The canonical address. Must not be null.
+     */
+    public void add(Address address) {
+        Validator.notNull(address, "address");
+        int id = address.getId();
+        int hash = hash(address.getStreet1(), address.getStreet2(), address.getCity(),
+                address.getState(), address.getZip(), address.getCountry().getId());
+        if (id >= hashes.length) {
+            hashes = Arrays.copyOf(hashes, Math.max(id + 1, hashes.length * 2));
+        }
+        hashes[id] = hash;
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int other = slots[slot] - 1;
+            if (hashes[other] == hash && matches(addresses.apply(other), address.getStreet1(),
+                    address.getStreet2(), address.getCity(), address.getState(),
+                    address.getZip(), address.getCountry().getId())) {
+                slots[slot] = id + 1;
+                return;
+            }
+        }
+        slots[slot] = id + 1;
+        if (++size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    /** @return Number of distinct addresses indexed. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hashes the components of an address.
+     * @return A well-mixed 32-bit hash.
+     */
+    static int hash(String street1, String street2, String city, String state,
+            String zip, int countryId) {
+        long h = 0xcbf29ce484222325L ^ countryId;
+        h = mix(h, street1);
+        h = mix(h, street2);
+        h = mix(h, city);
+        h = mix(h, state);
+        h = mix(h, zip);
+        // 64-bit finalizer of MurmurHash3.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3f53fe1a85bL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static long mix(long h, String field) {
+        for (int i = 0; i < field.length(); i++) {
+            h = (h ^ field.charAt(i)) * FNV_PRIME;
+        }
+        // The length separates the fields: ("ab", "c") differs from ("a", "bc").
+        return (h ^ field.length()) * FNV_PRIME;
+    }
+
+    private static boolean matches(Address address, String street1, String street2,
+            String city, String state, String zip, int countryId) {
+        return address.getCountry().getId() == countryId
+                && address.getZip().equals(zip)
+                && address.getStreet1().equals(street1)
+                && address.getStreet2().equals(street2)
+                && address.getCity().equals(city)
+                && address.getState().equals(state);
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        int mask = slots.length - 1;
+        for (int entry : old) {
+            if (entry != 0) {
+                int slot = hashes[entry - 1] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = entry;
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package servico;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -8,13 +10,14 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -29,6 +32,7 @@ import dominio.Evaluation;
 import dominio.Order;
 import dominio.SUBJECTS;
 import dominio.ShipTypes;
+import dominio.ShippingCalculator;
 import dominio.StatusTypes;
 import dominio.Stock;
 import recommendation.RecommendationSettings;
@@ -84,9 +88,23 @@ public class Bookmarket {
     static class StateMachine {
 
         private final List<Bookstore> state;
+        private final Map<Integer, Bookstore> storesById;
+        private final StockIndex stockIndex;
+        private final CustomerOrderIndex customerOrderIndex;
+        private final OrderDirectory orderDirectory;
 
         public StateMachine(final List object) {
             this.state = object;
+            this.storesById = new HashMap<>();
+            this.stockIndex = new StockIndex();
+            this.customerOrderIndex = new CustomerOrderIndex();
+            this.orderDirectory = new OrderDirectory();
+            state.forEach(store -> {
+                storesById.put(store.getId(), store);
+                store.attachStockIndex(stockIndex);
+                store.attachCustomerOrderIndex(customerOrderIndex);
+                store.attachOrderDirectory(orderDirectory);
+            });
         }
 
         Object execute(Action action) {
@@ -105,6 +123,22 @@ public class Bookmarket {
             return state.stream();
         }
 
+        Bookstore getBookstore(int id) {
+            return storesById.get(id);
+        }
+
+        StockIndex getStockIndex() {
+            return stockIndex;
+        }
+
+        CustomerOrderIndex getCustomerOrderIndex() {
+            return customerOrderIndex;
+        }
+
+        OrderDirectory getOrderDirectory() {
+            return orderDirectory;
+        }
+
         static StateMachine create(Bookstore... state) {
             List list = new ArrayList();
             list.addAll(Arrays.asList(state));
@@ -118,6 +152,8 @@ public class Bookmarket {
     }
     private static Random random;
     private static StateMachine stateMachine;
+    private static OrderStatusPipeline orderPipeline;
+    private static RestockWorker restockWorker;
 
     static StateMachine getStateMachine() {
         return stateMachine;
@@ -128,6 +164,10 @@ public class Bookmarket {
      * @param state
      */
     public static void init(int seed, final RecommendationSettings settings, Bookstore... state) {
+        // Workers left from a previous state would keep driving stores no
+        // longer served.
+        stopRestockWorker();
+        stopOrderPipeline();
         random = new Random(seed);
         try {
             stateMachine = StateMachine.create(state);
@@ -211,6 +251,96 @@ public class Bookmarket {
         return customer.getMostRecentOrder();
     }
 
+    /**
+     * Returns a page of the orders placed by a customer in every bookstore,
+     * oldest first. The cost is proportional to the page size.
+     *
+     * @param customerId
+     * @param cursor Position of the first order in the customer's history;
+     * the next page starts at {@code cursor + pageSize}.
+     * @param pageSize
+     * @return
+     */
+    public static List<Order> getOrders(int customerId, int cursor, int pageSize) {
+        Validator.notNegative(customerId, "Customer ID");
+        int[] page = stateMachine.getCustomerOrderIndex().getPage(customerId, cursor, pageSize);
+        List<Order> orders = new ArrayList<>(page.length / 2);
+        for (int i = 0; i < page.length; i += 2) {
+            orders.add(stateMachine.getBookstore(page[i]).getOrdersById().get(page[i + 1]));
+        }
+        return orders;
+    }
+
+    /**
+     * Returns an order of any bookstore by its ID, in constant time.
+     *
+     * @param orderId
+     * @return the order, or empty if no bookstore holds it
+     */
+    public static Optional<Order> getOrder(int orderId) {
+        Validator.notNegative(orderId, "Order ID");
+        OrderDirectory directory = stateMachine.getOrderDirectory();
+        int storeId = directory.getStoreId(orderId);
+        if (storeId < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(stateMachine.getBookstore(storeId).getOrdersById()
+                .get(directory.getSlot(orderId)));
+    }
+
+    /**
+     *
+     * @param customerId
+     * @return the number of orders placed by the customer in every bookstore
+     */
+    public static int getOrderCount(int customerId) {
+        Validator.notNegative(customerId, "Customer ID");
+        return stateMachine.getCustomerOrderIndex().getOrderCount(customerId);
+    }
+
+    /**
+     * Returns the orders of every bookstore dated within a range, store by
+     * store.
+     *
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return
+     */
+    public static List<Order> getOrders(Date from, Date to) {
+        return getBookstoreStream()
+                .flatMap(store -> store.getOrders(from, to).stream())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the count, sum of totals and units of the orders of every
+     * bookstore dated within a range.
+     *
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return
+     */
+    public static OrderTotals getOrderTotals(Date from, Date to) {
+        return getBookstoreStream()
+                .map(store -> store.getOrderTotals(from, to))
+                .reduce(OrderTotals.EMPTY, OrderTotals::plus);
+    }
+
+    /**
+     * Returns the order totals of every bookstore within a range, one entry
+     * per day that has orders.
+     *
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return The totals keyed by the start of each day (UTC).
+     */
+    public static SortedMap<Date, OrderTotals> getOrderTotalsByDay(Date from, Date to) {
+        SortedMap<Date, OrderTotals> result = new TreeMap<>();
+        getBookstoreStream().forEach(store -> store.getOrderTotalsByDay(from, to)
+                .forEach((day, totals) -> result.merge(day, totals, OrderTotals::plus)));
+        return result;
+    }
+
     /**
      *
      * @param fname
@@ -257,6 +387,31 @@ public class Bookmarket {
         }
     }
 
+    /**
+     *
+     * @param cId
+     * @return Whether the customer has a session that has not expired yet.
+     */
+    public static boolean isSessionValid(int cId) {
+        return Bookstore.isSessionValid(cId, System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @return Number of sessions ended by this call.
+     */
+    public static int expireSessions() {
+        return Bookstore.expireSessions(System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @return Number of customer sessions currently active.
+     */
+    public static int getActiveSessionCount() {
+        return Bookstore.getActiveSessionCount(System.currentTimeMillis());
+    }
+
     /**
      *
      * @param bookId
@@ -323,8 +478,7 @@ public class Bookmarket {
      */
     public static List<Double> getCosts(Book book) {
         Validator.notNull(book, "book");
-        return getBookstoreStream()
-                .map(store -> store.getStock(book.getId()))
+        return stateMachine.getStockIndex().getStocks(book.getId()).stream()
                 .map(Stock::getCost)
                 .collect(Collectors.toList());
     }
@@ -371,6 +525,29 @@ public class Bookmarket {
         return getBookSetMap(limit, aggregateSales);
     }
 
+    /**
+     * Returns the 'limit' best sellers of all Bookstores for one slice of the
+     * sales cubes, each with its stocks ordered by ascending cost.
+     *
+     * @param subject The subject, or null for every subject.
+     * @param countryId The shipping country ID, or {@link SalesCube#ALL}.
+     * @param discountBand The discount band (see
+     * {@link SalesCube#discountBand(double)}), or {@link SalesCube#ALL}.
+     * @param limit
+     * @return
+     */
+    public static Map<Book, Set<Stock>> getBestSellers(SUBJECTS subject,
+            int countryId, int discountBand, int limit) {
+        Validator.notOverrangeInclusive(limit, 1, 100, "limit");
+
+        Map<Book, Integer> aggregateSales = new HashMap<>();
+        getBookstoreStream().forEach(bookstore -> bookstore
+                .getBestSellers(subject, countryId, discountBand)
+                .forEach((book, count) -> aggregateSales.merge(book, count, Integer::sum)));
+
+        return getBookSetMap(limit, aggregateSales);
+    }
+
     private static Map<Book, Set<Stock>> getBookSetMap(int limit, Map<Book, Integer> aggregateSales) {
         List<Book> topBooks = new ArrayList<>(aggregateSales.keySet());
         topBooks.sort((b1, b2) -> aggregateSales.get(b2).compareTo(aggregateSales.get(b1)));
@@ -379,17 +556,9 @@ public class Bookmarket {
         List<Book> bestSellers = topBooks.subList(0, Math.min(limit, topBooks.size()));
 
         // For each top book, get all its stocks sorted by cost
+        StockIndex index = stateMachine.getStockIndex();
         Map<Book, Set<Stock>> result = new LinkedHashMap<>();
-        bestSellers.forEach(book -> {
-            Set<Stock> stocks = new TreeSet<>(Comparator.comparing(Stock::getCost));
-            getBookstoreStream().forEach(bookstore -> {
-                Stock stock = bookstore.getStock(book.getId());
-                if (stock != null) {
-                    stocks.add(stock);
-                }
-            });
-            result.put(book, stocks);
-        });
+        bestSellers.forEach(book -> result.put(book, new LinkedHashSet<>(index.getStocks(book.getId()))));
         return result;
     }
 
@@ -458,36 +627,54 @@ public class Bookmarket {
         Validator.notNegative(c_id, "Customer ID");
         // Subscriber perspective: for each recommended book, return the lowest price across all stores
         List<Book> recommended = getRecommendationByUsers(c_id, 10);
+        StockIndex index = stateMachine.getStockIndex();
         Map<Book, Double> result = new LinkedHashMap<>();
         for (Book book : recommended) {
-            // For each store, get the book's stock and extract the price
-            List<Double> prices = getBookstoreStream()
-                    .map(store -> store.getStock(book.getId()))
-                    .filter(Objects::nonNull)
+            double min = index.getCheapest(book.getId())
                     .map(Stock::getCost)
-                    .collect(Collectors.toList());
-            if (!prices.isEmpty()) {
-                double min = prices.stream().min(Double::compareTo).orElse(0.0);
-                result.put(book, min);
-            } else {
-                result.put(book, 0.0); // or null, if preferred
-            }
+                    .orElse(0.0);
+            result.put(book, min);
         }
         return result;
     }
 
     /**
+     * Returns every stock entry of a book across all bookstores, ordered by
+     * ascending cost.
      *
      * @param idBook
      * @return
      */
     public static List<Stock> getStocks(final int idBook) {
         Validator.notNegative(idBook, "Book ID");
-        return getBookstoreStream()
-                .filter(store -> store.getStock(idBook) != null)
-                // transforma o stream de bookstore em stream de stock
-                .map(store -> store.getStock(idBook))
-                .collect(Collectors.toList());
+        return new ArrayList<>(stateMachine.getStockIndex().getStocks(idBook));
+    }
+
+    /**
+     * Returns the cheapest stock entry of a book across all bookstores.
+     *
+     * @param idBook
+     * @return
+     */
+    public static Optional<Stock> getCheapestStock(final int idBook) {
+        Validator.notNegative(idBook, "Book ID");
+        return stateMachine.getStockIndex().getCheapest(idBook);
+    }
+
+    /**
+     * Plans how to split a cart across every bookstore so that goods plus
+     * one parcel of {@link FulfilmentPlanner#DEFAULT_PARCEL_COST} per
+     * shipping store cost the least. See {@link FulfilmentPlanner}.
+     *
+     * @param storeId
+     * @param cartId
+     * @return
+     */
+    public static FulfilmentPlan planFulfilment(int storeId, int cartId) {
+        Cart cart = getCart(storeId, cartId);
+        return new FulfilmentPlanner(stateMachine.getStockIndex(),
+                store -> FulfilmentPlanner.DEFAULT_PARCEL_COST,
+                FulfilmentPlanner.DEFAULT_BUDGET_NANOS).plan(cart);
     }
 
     /**
@@ -546,6 +733,26 @@ public class Bookmarket {
         }
     }
 
+    /**
+     * Updates the cost, and optionally the quantity, of many books of a
+     * bookstore in a single action. See
+     * {@link Bookstore#updateStocks(int[], double[], int[])}.
+     *
+     * @param storeId
+     * @param bookIds
+     * @param costs
+     * @param qtys The new quantities, or null to keep them.
+     * @return Number of entries updated or created.
+     */
+    public static int updateStocks(int storeId, int[] bookIds, double[] costs, int[] qtys) {
+        try {
+            return (Integer) stateMachine.execute(
+                    new UpdateStocksAction(storeId, bookIds, costs, qtys));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      *
      * @param storeId
@@ -560,6 +767,27 @@ public class Bookmarket {
         }
     }
 
+    /**
+     * Expires, in every bookstore, the carts idle for longer than their TTL,
+     * then packs the carts idle for longer than the cart idle time off-heap.
+     *
+     * @return Number of carts expired.
+     */
+    public static int expireCarts() {
+        long now = System.currentTimeMillis();
+        int expired = getBookstoreStream().mapToInt(store -> store.expireCarts(now)).sum();
+        getBookstoreStream().forEach(store -> store.packIdleCarts(now));
+        return expired;
+    }
+
+    /**
+     *
+     * @return Number of live carts in every bookstore.
+     */
+    public static int getLiveCartCount() {
+        return getBookstoreStream().mapToInt(Bookstore::getLiveCartCount).sum();
+    }
+
     /**
      *
      * @param storeId
@@ -577,6 +805,25 @@ public class Bookmarket {
         }
     }
 
+    /**
+     * Applies a batch of add, remove and set operations to a cart in a single
+     * action. See {@link Bookstore#cartApply(int, byte[], int[], int[], long)}.
+     *
+     * @param storeId
+     * @param cartId
+     * @param delta
+     * @return
+     */
+    public static Cart doCartDelta(int storeId, int cartId, CartDelta delta) {
+        Validator.notNull(delta, "delta");
+        try {
+            return (Cart) stateMachine.execute(
+                    new CartDeltaAction(storeId, cartId, delta, System.currentTimeMillis()));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      *
      * @param SHOPPING_ID
@@ -584,13 +831,7 @@ public class Bookmarket {
      * @return
      */
     public static Cart getCart(int storeId, int SHOPPING_ID) {
-        Bookstore bookstore = getBookstoreStream()
-                .filter(store -> store.getId() == storeId)
-                .findFirst()
-                .get();
-        synchronized (bookstore) {
-            return bookstore.getCart(SHOPPING_ID);
-        }
+        return stateMachine.getBookstore(storeId).getCart(SHOPPING_ID);
     }
 
     /**
@@ -741,6 +982,123 @@ public class Bookmarket {
         }
     }
 
+    /**
+     * Starts moving the orders of every bookstore through their lifecycle in
+     * the background. A pipeline already running is stopped first.
+     *
+     * @param periodMillis Delay between two batches, in milliseconds.
+     * @param batchSize Maximum number of orders moved per store and batch.
+     * @return The running pipeline, for monitoring.
+     */
+    public static synchronized OrderStatusPipeline startOrderPipeline(long periodMillis, int batchSize) {
+        stopOrderPipeline();
+        orderPipeline = new OrderStatusPipeline(stateMachine.getState(), batchSize);
+        orderPipeline.start(periodMillis);
+        return orderPipeline;
+    }
+
+    /**
+     * Stops the background order pipeline, if running.
+     */
+    public static synchronized void stopOrderPipeline() {
+        if (orderPipeline != null) {
+            orderPipeline.stop();
+            orderPipeline = null;
+        }
+    }
+
+    /**
+     * Subscribes to the inventory changes of a bookstore. See
+     * {@link InventoryFeed}.
+     *
+     * @param storeId
+     * @return A subscriber reading the changes made from now on.
+     */
+    public static InventoryFeed.Subscriber subscribeInventory(int storeId) {
+        return stateMachine.getBookstore(storeId).getInventoryFeed().subscribe();
+    }
+
+    /**
+     * Starts restocking the low stock entries of every bookstore in the
+     * background. A worker already running is stopped first.
+     *
+     * @param periodMillis Delay between two batches, in milliseconds.
+     * @param batchSize Maximum number of entries restocked per store and batch.
+     * @return The running worker, for monitoring.
+     */
+    public static synchronized RestockWorker startRestockWorker(long periodMillis, int batchSize) {
+        stopRestockWorker();
+        restockWorker = new RestockWorker(stateMachine.getState(), batchSize);
+        restockWorker.start(periodMillis);
+        return restockWorker;
+    }
+
+    /**
+     * Stops the background restock worker, if running.
+     */
+    public static synchronized void stopRestockWorker() {
+        if (restockWorker != null) {
+            restockWorker.stop();
+            restockWorker = null;
+        }
+    }
+
+    /**
+     * Sets the shipping calculator of every bookstore.
+     *
+     * @param calculator The calculator. Must not be null.
+     */
+    public static void setShippingCalculator(ShippingCalculator calculator) {
+        Validator.notNull(calculator, "calculator");
+        for (Bookstore store : stateMachine.getState()) {
+            store.setShippingCalculator(calculator);
+        }
+    }
+
+    /**
+     * Prices shipping by zone, shipping type and weight in every bookstore.
+     * See {@link ZoneShippingCalculator}.
+     *
+     * @return The calculator shared by the bookstores.
+     */
+    public static ZoneShippingCalculator useZoneShipping() {
+        ZoneShippingCalculator calculator = new ZoneShippingCalculator(Bookstore.getCountries());
+        setShippingCalculator(calculator);
+        return calculator;
+    }
+
+    /**
+     * Opens one order archive per bookstore in a directory, named
+     * {@code orders-<store ID>.bin}.
+     *
+     * @param directory An existing directory. Must not be null.
+     * @throws IOException if an archive file cannot be created.
+     * @throws IllegalStateException if an archive file is already in use,
+     * e.g. when archiving was already enabled on the same directory.
+     */
+    public static void enableOrderArchive(Path directory) throws IOException {
+        Validator.notNull(directory, "directory");
+        for (Bookstore store : stateMachine.getState()) {
+            store.setOrderArchive(new OrderArchive(
+                    directory.resolve("orders-" + store.getId() + ".bin")));
+        }
+    }
+
+    /**
+     * Archives, in every bookstore, the finished orders older than a given
+     * age. See {@link Bookstore#archiveOrders(long)}.
+     *
+     * @param maxAgeMillis Age above which finished orders are archived.
+     * @return Number of orders archived.
+     */
+    public static int archiveOrders(long maxAgeMillis) {
+        Validator.notNegative(maxAgeMillis, "maxAgeMillis");
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        return stateMachine.getStateStream()
+                .mapToInt(store -> store.archiveOrders(cutoff))
+                .sum();
+    }
+
     /**
      *
      */
@@ -922,6 +1280,46 @@ public class Bookmarket {
         }
     }
 
+    /**
+     *
+     */
+    protected static class UpdateStocksAction extends BookstoreAction {
+
+        private static final long serialVersionUID = 5237789046581293410L;
+
+        final int storeId;
+        final int[] bookIds;
+        final double[] costs;
+        final int[] qtys;
+
+        /**
+         *
+         * @param storeId
+         * @param bookIds
+         * @param costs
+         * @param qtys
+         */
+        public UpdateStocksAction(int storeId, int[] bookIds, double[] costs, int[] qtys) {
+            this.storeId = storeId;
+            this.bookIds = bookIds;
+            this.costs = costs;
+            this.qtys = qtys;
+        }
+
+        /**
+         *
+         * @param bookstore
+         * @return
+         */
+        @Override
+        public Object executeOnBookstore(Stream<Bookstore> bookstore) {
+            return bookstore.filter(bs -> bs.getId() == this.storeId)
+                    .findFirst()
+                    .get()
+                    .updateStocks(bookIds, costs, qtys);
+        }
+    }
+
     /**
      *
      */
@@ -991,6 +1389,48 @@ public class Bookmarket {
         }
     }
 
+    /**
+     *
+     */
+    protected static class CartDeltaAction extends BookstoreAction {
+
+        private static final long serialVersionUID = 3521704519863356218L;
+
+        final int cartId, storeId;
+        final byte[] ops;
+        final int[] bookIds, qtys;
+        final long now;
+
+        /**
+         *
+         * @param storeId
+         * @param cartId
+         * @param delta
+         * @param now
+         */
+        public CartDeltaAction(int storeId, int cartId, CartDelta delta, long now) {
+            this.storeId = storeId;
+            this.cartId = cartId;
+            this.ops = delta.getOps();
+            this.bookIds = delta.getBookIds();
+            this.qtys = delta.getQtys();
+            this.now = now;
+        }
+
+        /**
+         *
+         * @param bookstore
+         * @return
+         */
+        @Override
+        public Object executeOnBookstore(Stream<Bookstore> bookstore) {
+            return bookstore.filter(bs -> bs.getId() == this.storeId)
+                    .findFirst()
+                    .get()
+                    .cartApply(cartId, ops, bookIds, qtys, now);
+        }
+    }
+
     /**
      *
      */
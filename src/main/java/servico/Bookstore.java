@@ -58,19 +58,23 @@ import util.TPCW_Util;
 import util.Validator;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -114,16 +118,31 @@ public class Bookstore implements Serializable {
     private static final List<Country> countryById;
     private static final Map<String, Country> countryByName;
     private static final List<Address> addressById;
-    private static final Map<Address, Address> addressByAll;
+    private static final AddressInterner addressByAll;
     private static final List<Customer> customersById;
-    private static final Map<String, Customer> customersByUsername;
+    private static final SessionTable sessions;
     private static final List<Author> authorsById;
     private static final List<Book> booksById;
-    private final Map<Book, Stock> stockByBook;
-    private final List<Cart> cartsById;
-    private final List<Order> ordersById;
-    private final LinkedList<Order> ordersByCreation;
+    private final StockTable stockById;
+    private final RestockQueue restockQueue;
+    private final InventoryFeed inventoryFeed;
+    private StockIndex stockIndex;
+    private CustomerOrderIndex customerOrderIndex;
+    private OrderDirectory orderDirectory;
+    private final CartTable cartsById;
+    private final OrderLog ordersById;
+    private final OrderLineStore orderLines;
+    private final SalesCube salesCube;
+    private final OrderTimeIndex ordersByDate;
+    private final ArrayDeque<Order> openOrders;
+    private final AtomicLong statusTransitions;
+    private final AtomicInteger openOrderCount;
+    private transient OrderArchive orderArchive;
+    private transient ShippingCalculator shippingCalculator;
+    private transient volatile boolean restockInBackground;
+    private int archiveCursor;
     private static final List<Evaluation> evaluationById;
+    private static final AtomicInteger nextOrderId = new AtomicInteger();
 
     private final int id;
 
@@ -131,9 +150,9 @@ public class Bookstore implements Serializable {
         countryById = new ArrayList<>();
         countryByName = new HashMap<>();
         addressById = new ArrayList<>();
-        addressByAll = new HashMap<>();
+        addressByAll = new AddressInterner(addressById::get);
         customersById = new ArrayList<>();
-        customersByUsername = new HashMap<>();
+        sessions = new SessionTable();
         authorsById = new ArrayList<>();
         booksById = new ArrayList<>();
         evaluationById = new ArrayList<>();
@@ -144,10 +163,17 @@ public class Bookstore implements Serializable {
      */
     public Bookstore(final int id) {
         this.id = id;
-        cartsById = new ArrayList<>();
-        ordersById = new ArrayList<>();
-        ordersByCreation = new LinkedList<>();
-        stockByBook = new HashMap<>();
+        cartsById = new CartTable(CartTable.DEFAULT_TTL, this::getStock);
+        ordersById = new OrderLog();
+        orderLines = new OrderLineStore();
+        salesCube = new SalesCube();
+        ordersByDate = new OrderTimeIndex();
+        openOrders = new ArrayDeque<>();
+        statusTransitions = new AtomicLong();
+        openOrderCount = new AtomicInteger();
+        stockById = new StockTable();
+        restockQueue = new RestockQueue();
+        inventoryFeed = new InventoryFeed();
 
         recommendationEngine = new RecommendationEngine(evaluationById, new RecommendationSettings());
     }
@@ -206,14 +232,14 @@ public class Bookstore implements Serializable {
      */
     public static Address alwaysGetAddress(String street1, String street2,
             String city, String state, String zip, String countryName) {
-        Country country = alwaysGetCountry(countryName);
-        Address key = new Address(0, street1, street2, city, state, zip, country);
-        Address address = addressByAll.get(key);
-        if (address == null) {
-            address = createAddress(street1, street2, city, state, zip,
-                    country);
+        synchronized (addressByAll) {
+            Country country = alwaysGetCountry(countryName);
+            int id = addressByAll.find(street1, street2, city, state, zip, country.getId());
+            if (id >= 0) {
+                return addressById.get(id);
+            }
+            return createAddress(street1, street2, city, state, zip, country);
         }
-        return address;
     }
 
     /**
@@ -232,7 +258,7 @@ public class Bookstore implements Serializable {
         Address address = new Address(id, street1, street2, city, state, zip,
                 country);
         addressById.add(address);
-        addressByAll.put(address, address);
+        addressByAll.add(address);
         return address;
     }
 
@@ -245,11 +271,41 @@ public class Bookstore implements Serializable {
     }
 
     /**
-     * Returns a customer by their usernamex.
+     * Returns a customer by their username. Usernames are the customer ID
+     * encoded by {@link TPCW_Util#DigSyl(int, int)}, so the ID is decoded
+     * and checked against the username of the customer found.
      */
     public static Optional<Customer> getCustomer(String username) {
         Validator.notEmpty(username, "Username");
-        return Optional.ofNullable(customersByUsername.get(username));
+        int cId = TPCW_Util.unDigSyl(username);
+        if (cId < 0 || cId >= customersById.size()) {
+            return Optional.empty();
+        }
+        Customer customer = customersById.get(cId);
+        return customer.getUname().equals(username)
+                ? Optional.of(customer)
+                : Optional.empty();
+    }
+
+    /**
+     * Returns an address by its ID. Used to rebuild archived orders.
+     */
+    static Address getAddress(int id) {
+        return addressById.get(id);
+    }
+
+    /**
+     * Returns a country by its ID. Used to rebuild archived orders.
+     */
+    static Country getCountry(int id) {
+        return countryById.get(id);
+    }
+
+    /**
+     * Returns every country. Used to build shipping zone tables.
+     */
+    static List<Country> getCountries() {
+        return Collections.unmodifiableList(countryById);
     }
 
     /**
@@ -289,18 +345,52 @@ public class Bookstore implements Serializable {
                 lname, phone, email, since, lastVisit, login, expiration,
                 discount, 0, 0, birthdate, data, address);
         customersById.add(customer);
-        customersByUsername.put(uname, customer);
+        sessions.refresh(id, login.getTime());
         return customer;
     }
 
     /**
-     * Set new login time and new expiration time for an active customer.
+     * Set new login time and new expiration time for an active customer,
+     * in the session table and in the {@link Customer}, without allocating.
      */
     public static void refreshCustomerSession(int cId, long now) {
         Validator.notNegative(cId, "Customer ID");
-        Customer customer = getCustomer(cId).orElseThrow(() -> new RuntimeException("Customer ID not found"));
-        customer.setLogin(new Date(now));
-        customer.setExpiration(new Date(now + 7200000 /* 2 hours */));
+        if (cId >= customersById.size()) {
+            throw new RuntimeException("Customer ID not found");
+        }
+        sessions.refresh(cId, now);
+        customersById.get(cId).setSession(now, now + sessions.getTtl());
+    }
+
+    /**
+     * Returns whether a customer has a session that has not expired yet.
+     */
+    public static boolean isSessionValid(int cId, long now) {
+        return sessions.isValid(cId, now);
+    }
+
+    /**
+     * Returns the expiry time of the session of a customer, or
+     * {@link Long#MIN_VALUE} when the customer has no session.
+     */
+    public static long getSessionExpiry(int cId) {
+        return sessions.getExpiry(cId);
+    }
+
+    /**
+     * Ends every session expired at a given time and returns how many.
+     */
+    public static int expireSessions(long now) {
+        return sessions.expire(now);
+    }
+
+    /**
+     * Returns the number of sessions active at a given time, ending the
+     * expired ones first.
+     */
+    public static int getActiveSessionCount(long now) {
+        sessions.expire(now);
+        return sessions.getActiveCount();
     }
 
     /**
@@ -511,31 +601,50 @@ public class Bookstore implements Serializable {
             throw new IllegalArgumentException("Subject cannot be null");
         }
 
-        // Take a snapshot of ordersByCreation under lock to avoid concurrent
-        // modification issues. We avoid holding the lock while doing stream
-        // processing to keep contention low.
-        final List<Order> ordersSnapshot;
-        synchronized (ordersByCreation) {
-            ordersSnapshot = new ArrayList<>(ordersByCreation);
+        // Sum the quantities of shipped orders straight from the columnar
+        // line store; only books of the requested subject are counted.
+        int bookCount = booksById.size();
+        boolean[] subjectMask = new boolean[bookCount];
+        for (int i = 0; i < bookCount; i++) {
+            subjectMask[i] = subject.equals(booksById.get(i).getSubject());
+        }
+        int[] sales = orderLines.sumQtyByBook(bookCount, subjectMask,
+                slot -> slot < ordersById.size()
+                        && ordersById.getStatus(slot) == StatusTypes.SHIPPED);
+
+        Map<Book, Integer> bookSales = new HashMap<>();
+        for (int bookId = 0; bookId < bookCount; bookId++) {
+            if (sales[bookId] > 0) {
+                bookSales.put(booksById.get(bookId), sales[bookId]);
+            }
         }
+        return bookSales;
+    }
 
-        // Use streams + flatMap to transform orders -> order lines, filter out
-        // nulls and lines whose book is null, then group by Book summing the
-        // quantities. This improves readability and follows the functional
-        // style used across Bookmarket.
-        Map<Book, Integer> bookSales = ordersSnapshot.stream()
-                .filter(order -> order != null && order.isShipped())
-                .flatMap(order -> order.getLines().stream())
-                .filter(line -> line != null && line.getBook() != null && subject.equals(line.getBook().getSubject()))
-                .collect(Collectors.groupingBy(
-                        line -> line.getBook(),
-                        Collectors.summingInt(line -> line.getQty())
-                ));
+    /**
+     * Returns the units sold per book of shipped orders, sliced by subject,
+     * shipping country and customer discount band.
+     *
+     * @param subject The subject, or null for every subject.
+     * @param countryId The shipping country ID, or {@link SalesCube#ALL}.
+     * @param discountBand The discount band, or {@link SalesCube#ALL}.
+     * @return
+     */
+    public Map<Book, Integer> getBestSellers(SUBJECTS subject, int countryId, int discountBand) {
+        return salesCube.slice(subject, countryId, discountBand);
+    }
 
-        return bookSales;
+    /**
+     * Returns the sales cube of this store.
+     */
+    public SalesCube getSalesCube() {
+        return salesCube;
     }
 
     /**
+     * Returns the orders of this store in creation order. Positions in the
+     * list are store-local slots; order IDs are global and can be resolved
+     * to a store and slot through {@link Bookmarket#getOrder(int)}.
      *
      * @return
      */
@@ -543,6 +652,67 @@ public class Bookstore implements Serializable {
         return ordersById;
     }
 
+    /**
+     * Returns the orders of this store dated within a range. Only the daily
+     * partitions overlapping the range are visited.
+     *
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return
+     */
+    public List<Order> getOrders(Date from, Date to) {
+        Validator.notNull(from, "from");
+        Validator.notNull(to, "to");
+        int[] slots = ordersByDate.slotsBetween(from.getTime(), to.getTime());
+        List<Order> orders = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            orders.add(ordersById.get(slot));
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the count, sum of totals and units of the orders of this
+     * store dated within a range.
+     *
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return
+     */
+    public OrderTotals getOrderTotals(Date from, Date to) {
+        Validator.notNull(from, "from");
+        Validator.notNull(to, "to");
+        return ordersByDate.totalsBetween(from.getTime(), to.getTime());
+    }
+
+    /**
+     * Returns the order totals of this store within a range, one entry per
+     * day that has orders.
+     *
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return The totals keyed by the start of each day (UTC).
+     */
+    public SortedMap<Date, OrderTotals> getOrderTotalsByDay(Date from, Date to) {
+        Validator.notNull(from, "from");
+        Validator.notNull(to, "to");
+        SortedMap<Date, OrderTotals> result = new TreeMap<>();
+        ordersByDate.totalsByPeriod(from.getTime(), to.getTime())
+                .forEach((start, totals) -> result.put(new Date(start), totals));
+        return result;
+    }
+
+    /**
+     * Returns the orders of this store from the newest to the oldest. The
+     * iteration covers the orders created before the call and needs no lock
+     * or copy.
+     *
+     * @return
+     */
+    public Iterable<Order> getOrdersByCreation() {
+        return ordersById.newestFirst();
+    }
+
     /**
      *
      * @param subject
@@ -598,11 +768,141 @@ public class Bookstore implements Serializable {
         }
 
         Book book = opt.get();
-        if (!stockByBook.containsKey(book)) {
+        if (!stockById.contains(bId)) {
             int stock = TPCW_Util.getRandomInt(rand, 10, 30);
-            stockByBook.put(book, new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
+            putStock(new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
+        }
+        stockById.get(bId).setCost(cost);
+    }
+
+    /**
+     * Updates the cost, and optionally the quantity, of many books at once,
+     * as a nightly price feed does. Books this store does not stock yet get
+     * a new entry, with a random quantity if none is given, as
+     * {@link #updateStock(int, double)} does. The store's monitor is held
+     * for the whole batch and the price index is re-sorted once, at the
+     * end, for the books whose cost changed.
+     * <p>
+     * Every book ID, cost and quantity is checked before anything changes.
+     * Carts take their holds without the store's monitor, though, so a
+     * quantity checked against the units held may be below them by the time
+     * it is set. The batch then stops there: the entries before it stay
+     * updated and the others are left as they were.
+     * </p>
+     *
+     * @param bookIds The book IDs. Must not be null.
+     * @param costs The new unit costs, one per book. Must not be null.
+     * @param qtys The new quantities, one per book, or null to keep them.
+     * @return Number of entries updated or created.
+     * @throws IllegalStateException if a book ID is incorrect.
+     * @throws IllegalArgumentException if the arrays differ in length, a
+     * cost or quantity is negative, or a quantity is below the units held
+     * by carts.
+     */
+    public synchronized int updateStocks(int[] bookIds, double[] costs, int[] qtys) {
+        Validator.notNull(bookIds, "bookIds");
+        Validator.notNull(costs, "costs");
+        if (costs.length != bookIds.length || (qtys != null && qtys.length != bookIds.length)) {
+            throw new IllegalArgumentException("bookIds, costs and qtys must have the same length");
+        }
+        int bookCount = booksById.size();
+        for (int i = 0; i < bookIds.length; i++) {
+            if (bookIds[i] < 0 || bookIds[i] >= bookCount) {
+                throw new IllegalStateException("Book ID is incorrect: " + bookIds[i]);
+            }
+            Validator.notNegative(costs[i], "cost");
+            if (qtys != null) {
+                Validator.notNegative(qtys[i], "qty");
+                Stock stock = stockById.get(bookIds[i]);
+                if (stock != null && qtys[i] < stock.getReserved()) {
+                    throw new IllegalArgumentException("Quantity of book " + bookIds[i]
+                            + " cannot be below the units held by carts: " + stock.getReserved());
+                }
+            }
+        }
+        BitSet repriced = new BitSet(bookCount);
+        try {
+            for (int i = 0; i < bookIds.length; i++) {
+                Stock stock = stockById.get(bookIds[i]);
+                if (stock == null) {
+                    int qty = qtys != null ? qtys[i] : TPCW_Util.getRandomInt(rand, 10, 30);
+                    putStock(new Stock(this.id, getAnAddressAnyAddress(rand),
+                            booksById.get(bookIds[i]), costs[i], qty));
+                    continue;
+                }
+                double previous = stock.getCost();
+                if (stock.setCost(costs[i], false)) {
+                    repriced.set(bookIds[i]);
+                    inventoryFeed.costChanged(stock, previous);
+                }
+                if (qtys != null) {
+                    stock.setQty(qtys[i]);
+                }
+            }
+        } finally {
+            // Entries repriced before a failure must not stay out of order.
+            if (stockIndex != null && !repriced.isEmpty()) {
+                stockIndex.reindex(repriced);
+            }
+        }
+        return bookIds.length;
+    }
+
+    /**
+     * Registers a new stock entry in this store and in the attached
+     * {@link StockIndex}, if any, and starts feeding its changes to the
+     * store's {@link InventoryFeed}.
+     */
+    private void putStock(Stock stock) {
+        stockById.put(stock);
+        stock.addListener(inventoryFeed);
+        if (stockIndex != null) {
+            stockIndex.add(stock);
+        }
+    }
+
+    /**
+     * Attaches the cross-store price index. Every current stock entry is
+     * registered and later entries and cost changes are forwarded to it.
+     * A previously attached index stops receiving them.
+     *
+     * @param index The index shared by the stores of a {@link Bookmarket}.
+     */
+    synchronized void attachStockIndex(StockIndex index) {
+        Validator.notNull(index, "index");
+        StockIndex previous = stockIndex;
+        if (previous != null && previous != index) {
+            stockById.forEach(stock -> stock.removeListener(previous));
+        }
+        this.stockIndex = index;
+        stockById.forEach(index::add);
+    }
+
+    /**
+     * Attaches the cross-store customer order history. Every current order
+     * is recorded and later orders are added as they are created.
+     *
+     * @param index The index shared by the stores of a {@link Bookmarket}.
+     */
+    synchronized void attachCustomerOrderIndex(CustomerOrderIndex index) {
+        this.customerOrderIndex = Validator.notNull(index, "index");
+        for (int slot = 0; slot < ordersById.size(); slot++) {
+            index.record(ordersById.get(slot).getCustomer().getId(), id, slot);
+        }
+    }
+
+    /**
+     * Attaches the market-wide order directory. Every current order is
+     * recorded and later orders are added as they are created.
+     *
+     * @param directory The directory shared by the stores of a
+     * {@link Bookmarket}.
+     */
+    synchronized void attachOrderDirectory(OrderDirectory directory) {
+        this.orderDirectory = Validator.notNull(directory, "directory");
+        for (int slot = 0; slot < ordersById.size(); slot++) {
+            directory.record(ordersById.get(slot).getId(), id, slot);
         }
-        stockByBook.get(book).setCost(cost);
     }
 
     /**
@@ -611,54 +911,30 @@ public class Bookstore implements Serializable {
      * @return
      */
     public Stock getStock(int bId) {
-        Optional<Book> opt = getBook(bId);
-        if (!opt.isPresent()) {
+        Stock stock = stockById.get(bId);
+        if (stock == null && !getBook(bId).isPresent()) {
             throw new IllegalStateException("Book ID is incorrect.");
         }
-
-        Book book = opt.get();
-        return stockByBook.get(book);
+        return stock;
     }
 
     /**
      *
      */
     private void updateRelatedBooks(Book targetBook) {
-        HashSet<Integer> clientIds = new HashSet<>();
-        int j = 0;
-        Iterator<Order> i = ordersByCreation.iterator();
-        while (i.hasNext() && j <= 10000) {
-            Order order = i.next();
-            for (OrderLine line : order.getLines()) {
-                Book book = line.getBook();
-                if (targetBook.getId() == book.getId()) {
-                    clientIds.add(order.getCustomer().getId());
-                    break;
-                }
-            }
-            j++;
-        }
-        HashMap<Integer, Counter> counters = new HashMap<>();
-        i = ordersByCreation.iterator();
-        while (i.hasNext()) {
-            Order order = i.next();
-            if (clientIds.contains(order.getCustomer().getId())) {
-                order.getLines().forEach((line) -> {
-                    Book book = line.getBook();
-                    if (targetBook.getId() != book.getId()) {
-                        Counter counter = counters.get(book.getId());
-                        if (counter == null) {
-                            counter = new Counter();
-                            counter.book = book;
-                            counter.count = 0;
-                            counters.put(book.getId(), counter);
-                        }
-                        counter.count += line.getQty();
-                    }
-                });
+        int bookCount = booksById.size();
+        BitSet clientIds = orderLines.customersWhoBought(targetBook.getId(), 10000);
+        int[] sales = orderLines.sumQtyByBookForCustomers(bookCount, clientIds);
+        ArrayList<Counter> counters = new ArrayList<>();
+        for (int bookId = 0; bookId < bookCount; bookId++) {
+            if (bookId != targetBook.getId() && sales[bookId] > 0) {
+                Counter counter = new Counter();
+                counter.book = booksById.get(bookId);
+                counter.count = sales[bookId];
+                counters.add(counter);
             }
         }
-        Counter[] sorted = counters.values().toArray(new Counter[]{});
+        Counter[] sorted = counters.toArray(new Counter[]{});
         Arrays.sort(sorted, (Counter a, Counter b) -> {
             if (b.count > a.count) {
                 return 1;
@@ -667,7 +943,7 @@ public class Bookstore implements Serializable {
         });
         Book[] related = new Book[]{targetBook, targetBook, targetBook,
             targetBook, targetBook};
-        for (j = 0; j < 5 && j < sorted.length; j++) {
+        for (int j = 0; j < 5 && j < sorted.length; j++) {
             related[j] = sorted[j].book;
         }
         targetBook.setRelated1(related[0]);
@@ -681,9 +957,15 @@ public class Bookstore implements Serializable {
      *
      * @param id
      * @return
+     * @throws IllegalStateException if the cart does not exist or has expired.
      */
     public Cart getCart(int id) {
-        return cartsById.get(id);
+        Cart cart = cartsById.get(id);
+        if (cart == null) {
+            throw new IllegalStateException("Cart ID not found or expired: " + id);
+        }
+        cart.setShippingCalculator(getShippingCalculator());
+        return cart;
     }
 
     /**
@@ -692,25 +974,153 @@ public class Bookstore implements Serializable {
      * @return
      */
     public Cart createCart(long now) {
-        int idCart = cartsById.size();
-        Cart cart = new Cart(idCart, new Date(now));
-        cartsById.add(cart);
+        Cart cart = cartsById.create(now);
+        cart.setShippingCalculator(getShippingCalculator());
         return cart;
     }
 
+    /**
+     * Expires the carts idle for longer than their TTL. Their IDs stop
+     * resolving and their slots are reused by new carts.
+     *
+     * @param now
+     * @return Number of carts expired.
+     */
+    public int expireCarts(long now) {
+        return cartsById.expire(now);
+    }
+
+    /**
+     * Packs the carts idle for longer than the cart idle time into compact
+     * off-heap records; they are unpacked by the next lookup of their ID.
+     *
+     * @param now
+     * @return Number of carts packed.
+     */
+    public int packIdleCarts(long now) {
+        return cartsById.pack(now);
+    }
+
+    /**
+     * @param idleMillis Idle time after which a cart is packed off-heap;
+     * zero disables packing.
+     */
+    public void setCartIdleTime(long idleMillis) {
+        cartsById.setIdleTime(idleMillis);
+    }
+
+    /**
+     * @return Number of live carts of this store packed off-heap.
+     */
+    public int getPackedCartCount() {
+        return cartsById.getPackedCount();
+    }
+
+    /**
+     * @return Off-heap bytes taken by the packed carts of this store.
+     */
+    public long getPackedCartBytes() {
+        return cartsById.getPackedBytes();
+    }
+
+    /**
+     * @return Number of live carts in this store.
+     */
+    public int getLiveCartCount() {
+        return cartsById.getLiveCount();
+    }
+
+    /**
+     * @return Total number of carts expired in this store.
+     */
+    public long getExpiredCartCount() {
+        return cartsById.getExpiredCount();
+    }
+
+    /**
+     * @return Carts expired per second, see {@link CartTable#getExpiryRate()}.
+     */
+    public double getCartExpiryRate() {
+        return cartsById.getExpiryRate();
+    }
+
     /**
      *
      */
     public Cart cartUpdate(int cId, HashMap<Integer, Integer> bookQuantities, long now) {
-        Cart cart = getCart(cId);
+        while (true) {
+            Cart cart = getCart(cId);
+
+            // Only this cart is locked, so shoppers of the same store do not
+            // contend with each other.
+            synchronized (cart) {
+                if (!cartsById.isResident(cart)) {
+                    // Packed while we waited for it; unpack it again.
+                    continue;
+                }
+                bookQuantities.forEach( (bookId, qty) -> {
+                    if (getBook(bookId).isPresent()) {
+                        cart.changeLine(stockById.get(bookId), qty);
+                    }
+                });
 
-        bookQuantities.forEach( (bookId, qty) -> {
-            Optional<Book> opt = getBook(bookId);
-            opt.ifPresent(book -> cart.changeLine(stockByBook.get(book), qty));
-        });
+                cart.setTime(new Date(now));
+                return cart;
+            }
+        }
+    }
 
-        cart.setTime(new Date(now));
-        return cart;
+    /**
+     * Applies a batch of cart operations, given as parallel arrays of
+     * {@link CartDelta} operation codes, book IDs and quantities, under the
+     * cart's lock. Operations run in order; unknown books are skipped and a
+     * failing operation stops the batch, keeping the ones before it.
+     *
+     * @param cId
+     * @param ops
+     * @param bookIds
+     * @param qtys
+     * @param now
+     * @return
+     */
+    public Cart cartApply(int cId, byte[] ops, int[] bookIds, int[] qtys, long now) {
+        Validator.notNull(ops, "ops");
+        Validator.notNull(bookIds, "bookIds");
+        Validator.notNull(qtys, "qtys");
+        if (bookIds.length != ops.length || qtys.length != ops.length) {
+            throw new IllegalArgumentException("ops, bookIds and qtys must have the same length");
+        }
+        while (true) {
+            Cart cart = getCart(cId);
+
+            synchronized (cart) {
+                if (!cartsById.isResident(cart)) {
+                    // Packed while we waited for it; unpack it again.
+                    continue;
+                }
+                for (int i = 0; i < ops.length; i++) {
+                    if (!getBook(bookIds[i]).isPresent()) {
+                        continue;
+                    }
+                    Stock stock = stockById.get(bookIds[i]);
+                    switch (ops[i]) {
+                        case CartDelta.ADD:
+                            cart.increaseLine(stock, qtys[i]);
+                            break;
+                        case CartDelta.REMOVE:
+                            cart.increaseLine(stock, -Math.min(qtys[i], cart.getQty(bookIds[i])));
+                            break;
+                        case CartDelta.SET:
+                            cart.changeLine(stock, qtys[i]);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown cart operation: " + ops[i]);
+                    }
+                }
+                cart.setTime(new Date(now));
+                return cart;
+            }
+        }
     }
 
     /**
@@ -720,24 +1130,46 @@ public class Bookstore implements Serializable {
             CreditCards ccType, long[] ccNumber, String ccName, Date ccExpiry,
             ShipTypes shipping, Date shippingDate, int addressId, long now, StatusTypes status) {
         Customer customer = getCustomer(customerId).orElseThrow(() -> new RuntimeException("Customer ID not found"));
-        Cart cart = getCart(cartId);
         Address shippingAddress = customer.getAddress();
         if (addressId != -1) {
             shippingAddress = addressById.get(addressId);
         }
-        cart.getLines().stream().map((cartLine) -> {
-            Book book = cartLine.getBook();
-            stockByBook.get(book).addQty(-cartLine.getQty());
-            return book;
-        }).filter((book) -> (stockByBook.get(book).getQty() < 10)).forEachOrdered((book) -> {
-            stockByBook.get(book).addQty(21);
-        });
-        CCTransaction ccTransact = new CCTransaction(ccType, ccNumber, ccName,
-                ccExpiry, "123", cart.total(customer),
-                new Date(now), shippingAddress.getCountry());
-        return createOrder(customer, new Date(now), cart, comment, shipping,
-                shippingDate, status, customer.getAddress(),
-                shippingAddress, ccTransact);
+        // The checkout holds the cart so that no update slips in between
+        // the quote, the sale of the held units and the order.
+        List<Stock> filed = new ArrayList<>();
+        Order order;
+        while (true) {
+            Cart cart = getCart(cartId);
+            synchronized (cart) {
+                if (!cartsById.isResident(cart)) {
+                    // Packed while we waited for it; unpack it again.
+                    continue;
+                }
+                CartQuote quote = cart.quote(customer, shippingAddress, shipping,
+                        getShippingCalculator());
+                // The units were held in the stock while in the cart; the sale
+                // now takes them off the shelf and files the entries left low.
+                cart.commitReservations();
+                for (CartLine line : cart.getLines()) {
+                    if (restockQueue.offer(line.getStock())) {
+                        filed.add(line.getStock());
+                    }
+                }
+                CCTransaction ccTransact = new CCTransaction(ccType, ccNumber, ccName,
+                        ccExpiry, "123", quote.getTotal(),
+                        new Date(now), shippingAddress.getCountry());
+                order = createOrder(customer, new Date(now), cart, quote, comment, shipping,
+                        shippingDate, status, customer.getAddress(),
+                        shippingAddress, ccTransact);
+                break;
+            }
+        }
+        // Unless a restock worker is attached, the checkout restocks the
+        // entries it filed, once the cart is released.
+        if (!restockInBackground && !filed.isEmpty()) {
+            restockQueue.drain(filed);
+        }
+        return order;
     }
 
     /**
@@ -752,19 +1184,216 @@ public class Bookstore implements Serializable {
     }
 
     private Order createOrder(Customer customer, Date date, Cart cart,
-            String comment, ShipTypes shipType, Date shipDate,
+            CartQuote quote, String comment, ShipTypes shipType, Date shipDate,
             StatusTypes status, Address billingAddress, Address shippingAddress,
             CCTransaction cc) {
-        int idOrder = ordersById.size();
-        Order order = new Order(idOrder, customer, date, cart, comment, shipType,
-                shipDate, status, billingAddress, shippingAddress, cc);
-        ordersById.add(order);
-        ordersByCreation.addFirst(order);
+        // Order IDs are unique across every bookstore. Building and logging
+        // the order under the log's monitor keeps the position of its lines
+        // in the line store equal to its slot in the log.
+        Order order;
+        int slot;
+        synchronized (ordersById) {
+            order = new Order(nextOrderId.getAndIncrement(), customer, date, cart,
+                    comment, shipType, shipDate, status, billingAddress,
+                    shippingAddress, cc, orderLines, quote);
+            slot = ordersById.append(order);
+        }
+        if (orderDirectory != null) {
+            orderDirectory.record(order.getId(), id, slot);
+        }
+        int units = 0;
+        for (OrderLine line : order.getLines()) {
+            units += line.getQty();
+        }
+        ordersByDate.record(slot, date.getTime(), order.getTotal(), units);
+        if (order.isShipped()) {
+            salesCube.record(order);
+        } else if (!order.isFinished()) {
+            openOrderCount.incrementAndGet();
+            synchronized (openOrders) {
+                openOrders.addLast(order);
+            }
+        }
         customer.logOrder(order);
+        if (customerOrderIndex != null) {
+            customerOrderIndex.record(customer.getId(), id, slot);
+        }
         cart.clear();
         return order;
     }
 
+    /**
+     * Moves a batch of open orders one step through their lifecycle: PENDING
+     * orders are accepted (PROCESSING) or DENIED when the credit card had
+     * expired at order time, and PROCESSING orders are SHIPPED. Shipped
+     * orders are added to the sales cube in the same pass; orders still
+     * open go back to the end of the queue.
+     *
+     * @param batchSize Maximum number of orders to move.
+     * @return Number of status transitions applied.
+     */
+    public int advanceOrders(int batchSize) {
+        Validator.notNegative(batchSize, "batchSize");
+        List<Order> batch = new ArrayList<>(Math.min(batchSize, 1024));
+        synchronized (openOrders) {
+            while (batch.size() < batchSize && !openOrders.isEmpty()) {
+                batch.add(openOrders.pollFirst());
+            }
+        }
+
+        List<Order> stillOpen = new ArrayList<>();
+        for (Order order : batch) {
+            if (order.isPending()) {
+                boolean expired = order.getCC().getExpire().before(order.getDate());
+                order.transitionTo(expired ? StatusTypes.DENIED : StatusTypes.PROCESSING);
+            } else if (order.isProcessed()) {
+                order.transitionTo(StatusTypes.SHIPPED);
+                salesCube.record(order);
+            }
+            if (order.isFinished()) {
+                openOrderCount.decrementAndGet();
+            } else {
+                stillOpen.add(order);
+            }
+        }
+
+        if (!stillOpen.isEmpty()) {
+            synchronized (openOrders) {
+                stillOpen.forEach(openOrders::addLast);
+            }
+        }
+        statusTransitions.addAndGet(batch.size());
+        return batch.size();
+    }
+
+    /**
+     * @return The feed of the cost and quantity changes of this store's
+     * stock, to subscribe to.
+     */
+    public InventoryFeed getInventoryFeed() {
+        return inventoryFeed;
+    }
+
+    /**
+     * Restocks a batch of the entries filed as low by checkouts. See
+     * {@link RestockQueue#drain(int)}.
+     *
+     * @param batchSize Maximum number of entries restocked. Must not be
+     * negative.
+     * @return Number of entries restocked.
+     * @throws IllegalArgumentException if batchSize is negative.
+     */
+    public int applyRestocks(int batchSize) {
+        return restockQueue.drain(batchSize);
+    }
+
+    /**
+     * Sets whether the low entries filed by checkouts are left to a
+     * {@link RestockWorker}. Otherwise each checkout restocks them itself.
+     *
+     * @param inBackground Whether a restock worker is attached.
+     */
+    void setRestockInBackground(boolean inBackground) {
+        restockInBackground = inBackground;
+    }
+
+    /**
+     * @return Number of stock entries of this store waiting for a restock.
+     */
+    public int getPendingRestockCount() {
+        return restockQueue.getPendingCount();
+    }
+
+    /**
+     * @return The replenishment queue of this store, to set reorder policies
+     * and read restock times.
+     */
+    public RestockQueue getRestockQueue() {
+        return restockQueue;
+    }
+
+    /**
+     * Sets the calculator that prices the shipping of the orders of this
+     * store.
+     *
+     * @param calculator The calculator. Must not be null.
+     */
+    public synchronized void setShippingCalculator(ShippingCalculator calculator) {
+        this.shippingCalculator = Validator.notNull(calculator, "calculator");
+    }
+
+    /**
+     * @return The shipping calculator of this store,
+     * {@link ShippingCalculator#FLAT} unless another one was set.
+     */
+    public synchronized ShippingCalculator getShippingCalculator() {
+        return shippingCalculator == null ? ShippingCalculator.FLAT : shippingCalculator;
+    }
+
+    /**
+     * Sets the archive that receives the old orders of this store.
+     *
+     * @param archive The archive. Must not be null.
+     */
+    public synchronized void setOrderArchive(OrderArchive archive) {
+        this.orderArchive = Validator.notNull(archive, "archive");
+    }
+
+    /**
+     * Moves the SHIPPED and DENIED orders created before a cutoff to the
+     * order archive. They stay readable through {@link #getOrdersById()},
+     * which decodes them on access, but no longer occupy the heap. Open
+     * orders are kept in memory until they finish.
+     *
+     * @param cutoffMillis Orders dated strictly before this instant are
+     * archived.
+     * @return Number of orders archived by this call.
+     * @throws IllegalStateException if no archive was set.
+     */
+    public synchronized int archiveOrders(long cutoffMillis) {
+        if (orderArchive == null) {
+            throw new IllegalStateException("No order archive set");
+        }
+        int archived = 0;
+        int size = ordersById.size();
+        boolean prefix = true;
+        for (int i = archiveCursor; i < size; i++) {
+            if (ordersById.isArchived(i)) {
+                if (prefix) {
+                    archiveCursor = i + 1;
+                }
+                continue;
+            }
+            Order order = ordersById.get(i);
+            if (order.isFinished() && order.getDate().getTime() < cutoffMillis) {
+                ordersById.archive(i, orderArchive);
+                archived++;
+                if (prefix) {
+                    archiveCursor = i + 1;
+                }
+            } else {
+                prefix = false;
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * @return Number of orders of this store that are not SHIPPED or DENIED yet.
+     */
+    public int getOrderBacklog() {
+        // Counted apart from the queue so that orders taken out by a running
+        // batch are still reported until they finish.
+        return openOrderCount.get();
+    }
+
+    /**
+     * @return Number of status transitions applied by {@link #advanceOrders(int)}.
+     */
+    public long getStatusTransitionCount() {
+        return statusTransitions.get();
+    }
+
     /**
      *
      * @param costumerId
@@ -1030,10 +1659,10 @@ public class Bookstore implements Serializable {
             int nBooks = TPCW_Util.getRandomInt(rand, booksById.size() / 2, booksById.size());
             for (int j = 0; j < nBooks; j++) {
                 Book book = getABookAnyBook(rand);
-                if (!stockByBook.containsKey(book)) {
+                if (!stockById.contains(book.getId())) {
                     double cost = TPCW_Util.getRandomDouble(rand, 10d, 500d);
                     int quantity = TPCW_Util.getRandomInt(rand, 300, 400);
-                    stockByBook.put(book, new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, quantity));
+                    putStock(new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, quantity));
                 }
             }
         }
@@ -1055,17 +1684,18 @@ public class Bookstore implements Serializable {
                 Book book = getABookAnyBook(rand);
                 int stock = TPCW_Util.getRandomInt(rand, 300, 400);
                 int quantity = TPCW_Util.getRandomInt(rand, 1, stock);
-                if (!stockByBook.containsKey(book)) {
+                if (!stockById.contains(book.getId())) {
                     double cost = TPCW_Util.getRandomDouble(rand, 10d, 500d);
-                    stockByBook.put(book, new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
+                    putStock(new Stock(this.id, getAnAddressAnyAddress(rand), book, cost, stock));
                 }
 
-                int currentStock = stockByBook.get(book).getQty();
+                Stock entry = stockById.get(book.getId());
+                int currentStock = entry.getQty();
                 if (currentStock < quantity) {
                     quantity = currentStock;
                 }
 
-                cart.changeLine(stockByBook.get(book), quantity);
+                cart.changeLine(entry, quantity);
             }
 
             long[] cardNumber = {
@@ -1076,13 +1706,14 @@ public class Bookstore implements Serializable {
             };
 
             Customer customer = getACustomerAnyCustomer(rand);
+            CartQuote quote = cart.quote(customer);
             CCTransaction ccTransact = new CCTransaction(
                     CreditCards.values()[rand.nextInt(CreditCards.values().length)],
                     cardNumber,
                     TPCW_Util.getRandomString(rand, 14, 30),
                     new Date(now + TPCW_Util.getRandomInt(rand, 10, 730) * 86400000L /* a day */),
                     TPCW_Util.getRandomString(rand, 15, 15),
-                    cart.total(customer),
+                    quote.getTotal(),
                     new Date(now),
                     getACountryAnyCountry(rand));
             long orderDate = now - TPCW_Util.getRandomInt(rand, 53, 60) * 86400000L /* a day */;
@@ -1090,7 +1721,7 @@ public class Bookstore implements Serializable {
             createOrder(
                     customer,
                     new Date(orderDate),
-                    cart, comment,
+                    cart, quote, comment,
                     ShipTypes.values()[rand.nextInt(ShipTypes.values().length)],
                     new Date(shipDate),
                     StatusTypes.values()[rand.nextInt(StatusTypes.values().length)],
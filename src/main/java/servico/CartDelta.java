@@ -0,0 +1,94 @@
+package servico;
+
+import util.Validator;
+
+import java.util.Arrays;
+
+/**
+ * A batch of changes to apply to a cart in one call.
+ * <p>
+ * Each operation is a code, a book ID and a quantity, kept in parallel
+ * primitive arrays so a batch is cheap to build and to serialize. Operations
+ * are applied in the order they were added:
+ * </p>
+ * <ul>
+ * <li>{@link #ADD} adds units of a book, as {@code Cart.increaseLine};</li>
+ * <li>{@link #REMOVE} takes units out, dropping the line at zero;</li>
+ * <li>{@link #SET} sets the absolute quantity, as {@code Cart.changeLine}.</li>
+ * </ul>
+ */
+public final class CartDelta {
+
+    /** Adds units of a book. */
+    public static final byte ADD = 0;
+    /** Removes units of a book. */
+    public static final byte REMOVE = 1;
+    /** Sets the quantity of a book. */
+    public static final byte SET = 2;
+
+    private byte[] ops = new byte[8];
+    private int[] bookIds = new int[8];
+    private int[] qtys = new int[8];
+    private int size;
+
+    /**
+     * @param bookId The book ID.
+     * @param qty The units to add. Must not be negative.
+     * @return This batch.
+     */
+    public CartDelta add(int bookId, int qty) {
+        return append(ADD, bookId, Validator.notNegative(qty, "qty"));
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @param qty The units to remove. Must not be negative.
+     * @return This batch.
+     */
+    public CartDelta remove(int bookId, int qty) {
+        return append(REMOVE, bookId, Validator.notNegative(qty, "qty"));
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @param qty The new quantity; zero removes the line.
+     * @return This batch.
+     */
+    public CartDelta set(int bookId, int qty) {
+        return append(SET, bookId, qty);
+    }
+
+    /** @return Number of operations in the batch. */
+    public int size() {
+        return size;
+    }
+
+    /** @return The operation codes, one per operation. */
+    public byte[] getOps() {
+        return Arrays.copyOf(ops, size);
+    }
+
+    /** @return The book IDs, one per operation. */
+    public int[] getBookIds() {
+        return Arrays.copyOf(bookIds, size);
+    }
+
+    /** @return The quantities, one per operation. */
+    public int[] getQtys() {
+        return Arrays.copyOf(qtys, size);
+    }
+
+    private CartDelta append(byte op, int bookId, int qty) {
+        Validator.notNegative(bookId, "bookId");
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+            bookIds = Arrays.copyOf(bookIds, size * 2);
+            qtys = Arrays.copyOf(qtys, size * 2);
+        }
+        ops[size] = op;
+        bookIds[size] = bookId;
+        qtys[size] = qty;
+        size++;
+        return this;
+    }
+}
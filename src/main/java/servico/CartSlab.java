@@ -0,0 +1,105 @@
+package servico;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap storage for packed cart records.
+ * <p>
+ * Records live in direct buffers of {@link #CHUNK_SIZE} bytes, in blocks
+ * whose size is a power of two from {@link #MIN_BLOCK}. Blocks are carved
+ * from the last chunk and, once freed, kept in a free-list per size for the
+ * next record of that size, so neither the records nor the free space cost
+ * heap objects. A record is addressed by a reference packing its chunk and
+ * offset. Not thread-safe; {@link CartTable} uses it under its own lock.
+ * </p>
+ */
+final class CartSlab {
+
+    /** Size of each direct buffer: 1 MiB. */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    /** Smallest block handed out. */
+    static final int MIN_BLOCK = 32;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BLOCK);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(CHUNK_SIZE) - MIN_SHIFT + 1;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int top = CHUNK_SIZE;
+    private final long[][] freeBlocks = new long[CLASSES][];
+    private final int[] freeCounts = new int[CLASSES];
+    private long usedBytes;
+
+    /**
+     * @param size Size of the record. At most {@link #CHUNK_SIZE}.
+     * @return A reference to a block of at least that size.
+     */
+    long allocate(int size) {
+        int sizeClass = sizeClass(size);
+        if (freeCounts[sizeClass] > 0) {
+            usedBytes += blockSize(sizeClass);
+            return freeBlocks[sizeClass][--freeCounts[sizeClass]];
+        }
+        int block = blockSize(sizeClass);
+        if (top + block > CHUNK_SIZE) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+            top = 0;
+        }
+        long ref = ((long) (chunks.size() - 1) << 32) | top;
+        top += block;
+        usedBytes += block;
+        return ref;
+    }
+
+    /**
+     * @param ref A block returned by {@link #allocate(int)}.
+     * @param size The size it was allocated for.
+     */
+    void free(long ref, int size) {
+        int sizeClass = sizeClass(size);
+        long[] free = freeBlocks[sizeClass];
+        if (free == null) {
+            free = new long[16];
+        } else if (freeCounts[sizeClass] == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCounts[sizeClass]++] = ref;
+        freeBlocks[sizeClass] = free;
+        usedBytes -= blockSize(sizeClass);
+    }
+
+    /** @return The buffer holding a block. */
+    ByteBuffer buffer(long ref) {
+        return chunks.get((int) (ref >>> 32));
+    }
+
+    /** @return The offset of a block in its buffer. */
+    static int offset(long ref) {
+        return (int) ref;
+    }
+
+    /** @return Bytes in blocks currently allocated. */
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** @return Bytes reserved off-heap. */
+    long getReservedBytes() {
+        return (long) chunks.size() * CHUNK_SIZE;
+    }
+
+    private static int sizeClass(int size) {
+        if (size > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Record too large: " + size);
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size, MIN_BLOCK) - 1);
+        return bits - MIN_SHIFT;
+    }
+
+    private static int blockSize(int sizeClass) {
+        return MIN_BLOCK << sizeClass;
+    }
+}
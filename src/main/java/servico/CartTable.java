@@ -0,0 +1,409 @@
+package servico;
+
+import dominio.Cart;
+import dominio.Stock;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Table of the live shopping carts of a bookstore, with idle expiry and ID
+ * reuse.
+ * <p>
+ * A cart ID packs a slot of the table with the generation of that slot.
+ * When a cart expires its slot goes to a free-list and its generation is
+ * bumped, so the slot is reused by the next cart while the old ID simply
+ * stops resolving. Lookups read the slot without locking the table, so
+ * shoppers of the same store only synchronize on their own cart.
+ * </p>
+ * <p>
+ * An ID is a positive {@code int}: 23 bits of slot and 8 bits of
+ * generation. A slot whose 256 generations have all been issued is retired
+ * rather than wrapped, so an old ID never resolves to another shopper's
+ * cart. A table thus holds at most 8M live carts and issues at most
+ * 2<sup>31</sup> cart IDs over its lifetime; past either limit
+ * {@link #create(long)} fails.
+ * </p>
+ * <p>
+ * A cart expires once it has been idle, according to {@link Cart#getTime()},
+ * for longer than the TTL. Expiry is driven by a hashed timer wheel: every
+ * cart is filed under the tick of its deadline and {@link #expire(long)}
+ * only visits the ticks elapsed since the previous call. A cart touched in
+ * the meantime is not moved when touched; it is filed again under its new
+ * deadline when its old tick comes up. Expiring a cart clears it, which
+ * releases the stock its lines held.
+ * </p>
+ * <p>
+ * A table built with a stock resolver also demotes carts idle for longer
+ * than the idle time, which is much shorter than the TTL, to
+ * {@link Cart#pack packed} records stored off-heap by {@link #pack(long)}.
+ * Such a cart keeps its ID and its stock holds; the first lookup unpacks it
+ * back into the table. Callers holding a cart across a lookup check it with
+ * {@link #isResident(Cart)} after locking it, since a cart packed in the
+ * meantime is a stale copy.
+ * </p>
+ */
+public class CartTable implements Serializable {
+
+    private static final long serialVersionUID = -2874021394867511130L;
+
+    /** Default idle time after which a cart expires: 2 hours. */
+    public static final long DEFAULT_TTL = 7200000L;
+
+    /** Default idle time after which a cart is packed off-heap: 10 minutes. */
+    public static final long DEFAULT_IDLE_TIME = 600000L;
+
+    private static final int SLOT_BITS = 23;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+    private static final int WHEEL_SIZE = 256;
+
+    private final long ttl;
+    private final long tick;
+    private final transient IntFunction<Stock> stocks;
+    private long idleTime;
+
+    private volatile AtomicReferenceArray<Cart> carts = new AtomicReferenceArray<>(64);
+    private int[] generations = new int[64];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int liveCount;
+
+    private final transient CartSlab slab = new CartSlab();
+    // Packed record of each slot, plus one; zero when the cart is on-heap.
+    private long[] packedRefs = new long[64];
+    private int packedCount;
+
+    private final int[][] wheel = new int[WHEEL_SIZE][];
+    private final int[] wheelSizes = new int[WHEEL_SIZE];
+    private long currentTick = Long.MIN_VALUE;
+
+    private long expiredCount;
+    private long firstSweep = Long.MIN_VALUE;
+    private long lastSweep;
+
+    /**
+     * Creates a table whose carts expire after {@link #DEFAULT_TTL}.
+     */
+    public CartTable() {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * @param ttlMillis Idle time after which a cart expires. Must be positive.
+     */
+    public CartTable(long ttlMillis) {
+        this(ttlMillis, null);
+    }
+
+    /**
+     * Creates a table that packs carts idle for {@link #DEFAULT_IDLE_TIME}.
+     * @param ttlMillis Idle time after which a cart expires. Must be positive.
+     * @param stocks Resolves the stock of a book ID when a packed cart is
+     * unpacked; null disables packing.
+     */
+    public CartTable(long ttlMillis, IntFunction<Stock> stocks) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        this.ttl = ttlMillis;
+        this.tick = Math.max(1, ttlMillis / 64);
+        this.stocks = stocks;
+        this.idleTime = stocks == null ? 0 : DEFAULT_IDLE_TIME;
+    }
+
+    /**
+     * Creates an empty cart in a free slot.
+     * @param now The creation time.
+     * @return The new cart.
+     */
+    public synchronized Cart create(long now) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount > SLOT_MASK) {
+                throw new IllegalStateException("Too many live carts or cart IDs exhausted");
+            }
+            slot = slotCount++;
+            if (slot == generations.length) {
+                AtomicReferenceArray<Cart> grown = new AtomicReferenceArray<>(slot * 2);
+                for (int i = 0; i < slot; i++) {
+                    grown.set(i, carts.get(i));
+                }
+                carts = grown;
+                generations = Arrays.copyOf(generations, slot * 2);
+                packedRefs = Arrays.copyOf(packedRefs, slot * 2);
+            }
+        }
+        int id = (generations[slot] << SLOT_BITS) | slot;
+        Cart cart = new Cart(id, new Date(now));
+        carts.set(slot, cart);
+        liveCount++;
+        schedule(id, now + ttl);
+        return cart;
+    }
+
+    /**
+     * Looks a cart up. An on-heap cart is found without locking the table; a
+     * packed one is unpacked under the table lock. The ID of the cart held
+     * by a slot carries its generation, so a stale ID never matches the cart
+     * that reuses the slot.
+     * @param id The cart ID.
+     * @return The live cart with that ID, or null if it never existed or has
+     * expired.
+     */
+    public Cart get(int id) {
+        Cart cart = resident(id);
+        return cart != null ? cart : unpack(id);
+    }
+
+    /**
+     * @param cart A cart returned by {@link #get(int)}.
+     * @return Whether it is still the copy held by the table, i.e. it was
+     * neither packed nor expired since.
+     */
+    public boolean isResident(Cart cart) {
+        return resident(cart.getId()) == cart;
+    }
+
+    /**
+     * Packs the carts idle for longer than the idle time into off-heap
+     * records. Does nothing if packing is disabled.
+     * @param now The current time.
+     * @return Number of carts packed by this call.
+     */
+    public synchronized int pack(long now) {
+        if (idleTime <= 0) {
+            return 0;
+        }
+        int packed = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            Cart cart = carts.get(slot);
+            if (cart == null) {
+                continue;
+            }
+            // Locking the cart waits out any operation in progress on it.
+            synchronized (cart) {
+                int size = cart.getPackedSize();
+                if (cart.getTime().getTime() + idleTime > now || size > CartSlab.CHUNK_SIZE) {
+                    continue;
+                }
+                long ref = slab.allocate(size);
+                cart.pack(slab.buffer(ref), CartSlab.offset(ref));
+                packedRefs[slot] = ref + 1;
+                carts.set(slot, null);
+            }
+            packedCount++;
+            packed++;
+        }
+        return packed;
+    }
+
+    /**
+     * @param idleMillis Idle time after which a cart is packed off-heap;
+     * zero disables packing.
+     * @throws IllegalStateException if the table has no stock resolver.
+     */
+    public synchronized void setIdleTime(long idleMillis) {
+        if (idleMillis < 0) {
+            throw new IllegalArgumentException("idleMillis must not be negative");
+        }
+        if (idleMillis > 0 && stocks == null) {
+            throw new IllegalStateException("Packing needs a stock resolver");
+        }
+        this.idleTime = idleMillis;
+    }
+
+    /** @return The idle time after which a cart is packed, zero if never. */
+    public synchronized long getIdleTime() {
+        return idleTime;
+    }
+
+    /** @return Number of live carts currently packed off-heap. */
+    public synchronized int getPackedCount() {
+        return packedCount;
+    }
+
+    /** @return Off-heap bytes taken by the packed carts. */
+    public synchronized long getPackedBytes() {
+        return slab.getUsedBytes();
+    }
+
+    private synchronized Cart unpack(int id) {
+        if (id < 0) {
+            return null;
+        }
+        int slot = id & SLOT_MASK;
+        if (slot >= slotCount || packedRefs[slot] == 0) {
+            // Another thread may have unpacked it while we waited.
+            return resident(id);
+        }
+        long ref = packedRefs[slot] - 1;
+        ByteBuffer buffer = slab.buffer(ref);
+        int offset = CartSlab.offset(ref);
+        if (Cart.packedId(buffer, offset) != id) {
+            return null;
+        }
+        Cart cart = Cart.unpack(buffer, offset, stocks);
+        releaseRecord(slot);
+        carts.set(slot, cart);
+        return cart;
+    }
+
+    private void releaseRecord(int slot) {
+        long ref = packedRefs[slot] - 1;
+        slab.free(ref, Cart.packedSize(slab.buffer(ref), CartSlab.offset(ref)));
+        packedRefs[slot] = 0;
+        packedCount--;
+    }
+
+    private Cart resident(int id) {
+        if (id < 0) {
+            return null;
+        }
+        AtomicReferenceArray<Cart> current = carts;
+        int slot = id & SLOT_MASK;
+        if (slot >= current.length()) {
+            return null;
+        }
+        Cart cart = current.get(slot);
+        return cart != null && cart.getId() == id ? cart : null;
+    }
+
+    /**
+     * Expires every cart idle for longer than the TTL at a given time.
+     * @param now The current time.
+     * @return Number of carts expired by this call.
+     */
+    public synchronized int expire(long now) {
+        long target = Math.floorDiv(now, tick);
+        if (firstSweep == Long.MIN_VALUE) {
+            firstSweep = now;
+        }
+        lastSweep = Math.max(lastSweep, now);
+        if (currentTick == Long.MIN_VALUE) {
+            currentTick = target - WHEEL_SIZE;
+        }
+        // Past one full turn every bucket is due, so the wheel is walked once.
+        long from = Math.max(currentTick + 1, target - WHEEL_SIZE + 1);
+        int expired = 0;
+        for (long t = from; t <= target; t++) {
+            expired += sweep((int) Math.floorMod(t, (long) WHEEL_SIZE), now);
+        }
+        currentTick = Math.max(currentTick, target);
+        expiredCount += expired;
+        return expired;
+    }
+
+    /** @return Number of carts currently live. */
+    public synchronized int getLiveCount() {
+        return liveCount;
+    }
+
+    /** @return Total number of carts expired so far. */
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return Carts expired per second between the first and the latest call
+     * to {@link #expire(long)}, or zero before two sweeps were made.
+     */
+    public synchronized double getExpiryRate() {
+        long elapsed = lastSweep - firstSweep;
+        return firstSweep == Long.MIN_VALUE || elapsed <= 0
+                ? 0
+                : expiredCount * 1000.0 / elapsed;
+    }
+
+    /** @return The idle time after which a cart expires, in milliseconds. */
+    public long getTtl() {
+        return ttl;
+    }
+
+    private int sweep(int bucket, long now) {
+        int size = wheelSizes[bucket];
+        if (size == 0) {
+            return 0;
+        }
+        int[] ids = wheel[bucket];
+        wheel[bucket] = null;
+        wheelSizes[bucket] = 0;
+
+        int expired = 0;
+        for (int i = 0; i < size; i++) {
+            int id = ids[i];
+            int slot = id & SLOT_MASK;
+            Cart cart = resident(id);
+            long ref = packedRefs[slot] - 1;
+            long deadline;
+            if (cart != null) {
+                // The idle time is read under the cart lock, so an operation
+                // that touched the cart while we waited keeps it alive.
+                synchronized (cart) {
+                    deadline = cart.getTime().getTime() + ttl;
+                    if (deadline <= now) {
+                        // Gives the stock held by the cart back to other shoppers.
+                        cart.clear();
+                        carts.set(slot, null);
+                    }
+                }
+            } else if (ref >= 0 && Cart.packedId(slab.buffer(ref), CartSlab.offset(ref)) == id) {
+                // A packed cart is expired without being unpacked; it is only
+                // unpacked under the table lock, which we hold.
+                deadline = Cart.packedTime(slab.buffer(ref), CartSlab.offset(ref)) + ttl;
+                if (deadline <= now) {
+                    Cart.releasePacked(slab.buffer(ref), CartSlab.offset(ref), stocks);
+                    releaseRecord(slot);
+                }
+            } else {
+                continue;
+            }
+            if (deadline <= now) {
+                free(slot);
+                expired++;
+            } else {
+                schedule(id, deadline);
+            }
+        }
+        return expired;
+    }
+
+    /** Puts the slot of an expired cart, already emptied, up for reuse. */
+    private void free(int slot) {
+        liveCount--;
+        if (generations[slot] == GENERATION_MASK) {
+            // Every ID of the slot has been issued: retire it for good.
+            return;
+        }
+        generations[slot]++;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void schedule(int id, long deadline) {
+        long due = Math.floorDiv(deadline, tick);
+        if (currentTick != Long.MIN_VALUE && due <= currentTick) {
+            due = currentTick + 1;
+        }
+        int bucket = (int) Math.floorMod(due, (long) WHEEL_SIZE);
+        int size = wheelSizes[bucket];
+        int[] ids = wheel[bucket];
+        if (ids == null) {
+            ids = new int[8];
+        } else if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size] = id;
+        wheel[bucket] = ids;
+        wheelSizes[bucket] = size + 1;
+    }
+}
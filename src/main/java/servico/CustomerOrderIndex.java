@@ -0,0 +1,78 @@
+package servico;
+
+import util.Validator;
+
+import java.util.Arrays;
+
+/**
+ * Order history of every customer across all bookstores of a
+ * {@link Bookmarket}.
+ * <p>
+ * Each customer owns a compact {@code int} array holding, in creation
+ * order, one (store ID, slot) pair per order, the slot being the position
+ * of the order in that store's order log. Pages are read by
+ * position, so a lookup costs O(page) no matter how many orders the
+ * customer or the market holds.
+ * </p>
+ */
+public class CustomerOrderIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private int[][] ordersByCustomer = new int[64][];
+    private int[] countByCustomer = new int[64];
+
+    /**
+     * Records a new order at the end of a customer's history.
+     * @param customerId The customer ID.
+     * @param storeId The ID of the bookstore holding the order.
+     * @param slot The position of the order in that bookstore's order log.
+     */
+    public synchronized void record(int customerId, int storeId, int slot) {
+        Validator.notNegative(customerId, "customerId");
+        if (customerId >= ordersByCustomer.length) {
+            int capacity = Math.max(customerId + 1, ordersByCustomer.length * 2);
+            ordersByCustomer = Arrays.copyOf(ordersByCustomer, capacity);
+            countByCustomer = Arrays.copyOf(countByCustomer, capacity);
+        }
+        int[] pairs = ordersByCustomer[customerId];
+        int count = countByCustomer[customerId];
+        if (pairs == null) {
+            pairs = new int[8];
+        } else if (2 * count + 2 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[2 * count] = storeId;
+        pairs[2 * count + 1] = slot;
+        ordersByCustomer[customerId] = pairs;
+        countByCustomer[customerId] = count + 1;
+    }
+
+    /**
+     * @param customerId The customer ID.
+     * @return How many orders the customer has placed.
+     */
+    public synchronized int getOrderCount(int customerId) {
+        return customerId >= 0 && customerId < countByCustomer.length
+                ? countByCustomer[customerId]
+                : 0;
+    }
+
+    /**
+     * Returns a page of a customer's history as (store ID, slot) pairs.
+     * @param customerId The customer ID.
+     * @param cursor The position of the first order, in creation order.
+     * @param pageSize The maximum number of orders to return.
+     * @return The pairs, flattened as {@code [store0, slot0, store1, slot1, ...]}.
+     */
+    public synchronized int[] getPage(int customerId, int cursor, int pageSize) {
+        Validator.notNegative(cursor, "cursor");
+        Validator.notNegative(pageSize, "pageSize");
+        int count = getOrderCount(customerId);
+        if (cursor >= count) {
+            return EMPTY;
+        }
+        int end = (int) Math.min(count, (long) cursor + pageSize);
+        return Arrays.copyOfRange(ordersByCustomer[customerId], 2 * cursor, 2 * end);
+    }
+}
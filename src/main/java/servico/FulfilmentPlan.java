@@ -0,0 +1,110 @@
+package servico;
+
+import dominio.Stock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable split of a cart into per-store shipments, as computed by a
+ * {@link FulfilmentPlanner}.
+ */
+public final class FulfilmentPlan {
+
+    /**
+     * Units of one book taken from one stock entry.
+     */
+    public static final class Allocation {
+
+        private final Stock stock;
+        private final int qty;
+        private final double unitCost;
+
+        Allocation(Stock stock, int qty, double unitCost) {
+            this.stock = stock;
+            this.qty = qty;
+            this.unitCost = unitCost;
+        }
+
+        /** @return The stock entry the units come from. */
+        public Stock getStock() {
+            return stock;
+        }
+
+        /** @return Number of units taken. */
+        public int getQty() {
+            return qty;
+        }
+
+        /** @return Cost of one unit when the plan was computed. */
+        public double getUnitCost() {
+            return unitCost;
+        }
+
+        /**
+         * @return Cost of the units when the plan was computed. The costs of
+         * the allocations add up to {@link FulfilmentPlan#getGoodsCost()}.
+         */
+        public double getCost() {
+            return qty * unitCost;
+        }
+    }
+
+    private final Map<Integer, List<Allocation>> shipments;
+    private final Map<Integer, Integer> unfilled;
+    private final double goodsCost;
+    private final double shippingCost;
+    private final boolean complete;
+
+    FulfilmentPlan(Map<Integer, List<Allocation>> shipments, Map<Integer, Integer> unfilled,
+            double goodsCost, double shippingCost, boolean complete) {
+        this.shipments = Collections.unmodifiableMap(shipments);
+        this.unfilled = Collections.unmodifiableMap(unfilled);
+        this.goodsCost = goodsCost;
+        this.shippingCost = shippingCost;
+        this.complete = complete;
+    }
+
+    /** @return The IDs of the bookstores shipping part of the cart. */
+    public Set<Integer> getStoreIds() {
+        return shipments.keySet();
+    }
+
+    /**
+     * @param storeId A bookstore ID.
+     * @return The units shipped by that store, empty if none.
+     */
+    public List<Allocation> getShipment(int storeId) {
+        return shipments.getOrDefault(storeId, Collections.emptyList());
+    }
+
+    /** @return Units no store can supply, by book ID. */
+    public Map<Integer, Integer> getUnfilled() {
+        return unfilled;
+    }
+
+    /** @return Cost of the allocated units. */
+    public double getGoodsCost() {
+        return goodsCost;
+    }
+
+    /** @return Cost of the parcels, one per shipping store. */
+    public double getShippingCost() {
+        return shippingCost;
+    }
+
+    /** @return Goods plus shipping. */
+    public double getTotalCost() {
+        return goodsCost + shippingCost;
+    }
+
+    /**
+     * @return Whether the search ended on its own, rather than being cut by
+     * the time budget with the best plan found so far.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
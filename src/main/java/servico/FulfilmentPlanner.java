@@ -0,0 +1,292 @@
+package servico;
+
+import dominio.Cart;
+import dominio.CartLine;
+import dominio.Stock;
+import util.Validator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Splits a cart across bookstores so that the cost of the goods plus one
+ * parcel per shipping store is as low as possible.
+ * <p>
+ * Once the set of shipping stores is fixed, the best allocation takes every
+ * book from its cheapest offers in that set, which the {@link StockIndex}
+ * already keeps sorted. The planner therefore searches over store sets:
+ * it starts from the stores of the cheapest offers and improves the set by
+ * local search, closing a store, opening one or swapping two, until no move
+ * helps. Each move costs one pass over the offers of the cart, and the
+ * search stops at a time budget with the best plan found so far, so it fits
+ * in the latency of a checkout.
+ * </p>
+ * <p>
+ * Availability is read from the stock entries when planning; nothing is
+ * held, so a plan is a proposal that the checkout of each store confirms.
+ * </p>
+ */
+public class FulfilmentPlanner {
+
+    /** Default cost of a parcel from any store. */
+    public static final double DEFAULT_PARCEL_COST = 5.00;
+
+    /** Default time budget of a plan: 5 milliseconds. */
+    public static final long DEFAULT_BUDGET_NANOS = 5000000L;
+
+    private final StockIndex index;
+    private final IntToDoubleFunction parcelCost;
+    private final long budgetNanos;
+
+    /**
+     * @param index The cross-store price index. Must not be null.
+     * @param parcelCost Cost of a parcel from each store ID. Must not be null.
+     * @param budgetNanos Time budget of a plan, in nanoseconds.
+     */
+    public FulfilmentPlanner(StockIndex index, IntToDoubleFunction parcelCost, long budgetNanos) {
+        this.index = Validator.notNull(index, "index");
+        this.parcelCost = Validator.notNull(parcelCost, "parcelCost");
+        this.budgetNanos = Validator.notNegative(budgetNanos, "budgetNanos");
+    }
+
+    /**
+     * Plans a cart. The units the cart holds count as available in the
+     * store they are held in.
+     * @param cart The cart. Must not be null.
+     * @return The plan.
+     */
+    public FulfilmentPlan plan(Cart cart) {
+        Validator.notNull(cart, "cart");
+        List<CartLine> lines = cart.getLines();
+        int[] bookIds = new int[lines.size()];
+        int[] qtys = new int[lines.size()];
+        Map<Stock, Integer> held = new IdentityHashMap<>();
+        for (int i = 0; i < bookIds.length; i++) {
+            CartLine line = lines.get(i);
+            bookIds[i] = line.getBook().getId();
+            qtys[i] = line.getQty();
+            held.put(line.getStock(), line.getQty());
+        }
+        return plan(bookIds, qtys, held);
+    }
+
+    /**
+     * Plans a list of books and quantities; a book listed twice is planned
+     * once for the sum.
+     * @param bookIds The book IDs. Must not be null.
+     * @param qtys The quantities, one per book. Must not be null.
+     * @return The plan.
+     */
+    public FulfilmentPlan plan(int[] bookIds, int[] qtys) {
+        return plan(bookIds, qtys, Collections.emptyMap());
+    }
+
+    private FulfilmentPlan plan(int[] bookIds, int[] qtys, Map<Stock, Integer> held) {
+        Validator.notNull(bookIds, "bookIds");
+        Validator.notNull(qtys, "qtys");
+        if (bookIds.length != qtys.length) {
+            throw new IllegalArgumentException("bookIds and qtys must have the same length");
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        Map<Integer, Integer> demand = new LinkedHashMap<>();
+        for (int i = 0; i < bookIds.length; i++) {
+            demand.merge(bookIds[i], Validator.notNegative(qtys[i], "qty"), Integer::sum);
+        }
+        Problem problem = new Problem(demand, held);
+        Map<Integer, Integer> unfilled = problem.capDemand();
+
+        // The stores of the cheapest offers: every store open.
+        boolean[] open = new boolean[problem.storeIds.length];
+        Arrays.fill(open, true);
+        boolean[] best = problem.used(open);
+        double bestCost = problem.cost(best);
+        boolean complete = true;
+
+        search:
+        while (true) {
+            for (int move = 0; move < 3; move++) {
+                for (int a = 0; a < best.length; a++) {
+                    for (int b = move == 2 ? 0 : a; b < (move == 2 ? best.length : a + 1); b++) {
+                        boolean[] candidate = best.clone();
+                        if (move == 0 && best[a]) {
+                            candidate[a] = false;
+                        } else if (move == 1 && !best[a]) {
+                            candidate[a] = true;
+                        } else if (move == 2 && best[a] && !best[b]) {
+                            candidate[a] = false;
+                            candidate[b] = true;
+                        } else {
+                            continue;
+                        }
+                        if (System.nanoTime() > deadline) {
+                            complete = false;
+                            break search;
+                        }
+                        candidate = problem.used(candidate);
+                        double cost = problem.cost(candidate);
+                        if (cost < bestCost - 1e-9) {
+                            best = candidate;
+                            bestCost = cost;
+                            continue search;
+                        }
+                    }
+                }
+            }
+            break;
+        }
+        return problem.toPlan(best, unfilled, complete);
+    }
+
+    /**
+     * The offers of every book of a cart, indexed by line and by store.
+     */
+    private final class Problem {
+
+        final int[] bookIds;
+        final int[] demand;
+        final int[] storeIds;
+        final double[] parcels;
+        // Offers of each line in ascending cost.
+        final int[][] offerStore;
+        final double[][] offerCost;
+        final int[][] offerAvailable;
+        final Stock[][] offerStock;
+
+        Problem(Map<Integer, Integer> lines, Map<Stock, Integer> held) {
+            int count = lines.size();
+            bookIds = new int[count];
+            demand = new int[count];
+            offerStore = new int[count][];
+            offerCost = new double[count][];
+            offerAvailable = new int[count][];
+            offerStock = new Stock[count][];
+            Map<Integer, Integer> storeIndex = new HashMap<>();
+            List<Integer> stores = new ArrayList<>();
+            int line = 0;
+            for (Map.Entry<Integer, Integer> entry : lines.entrySet()) {
+                bookIds[line] = entry.getKey();
+                demand[line] = entry.getValue();
+                List<Stock> offers = index.getStocks(entry.getKey());
+                offerStore[line] = new int[offers.size()];
+                offerCost[line] = new double[offers.size()];
+                offerAvailable[line] = new int[offers.size()];
+                offerStock[line] = offers.toArray(new Stock[0]);
+                for (int k = 0; k < offers.size(); k++) {
+                    Stock stock = offers.get(k);
+                    Integer store = storeIndex.get(stock.getIdBookstore());
+                    if (store == null) {
+                        store = stores.size();
+                        storeIndex.put(stock.getIdBookstore(), store);
+                        stores.add(stock.getIdBookstore());
+                    }
+                    offerStore[line][k] = store;
+                    offerCost[line][k] = stock.getCost();
+                    offerAvailable[line][k] = stock.getAvailable() + held.getOrDefault(stock, 0);
+                }
+                line++;
+            }
+            storeIds = stores.stream().mapToInt(Integer::intValue).toArray();
+            parcels = new double[storeIds.length];
+            for (int s = 0; s < storeIds.length; s++) {
+                parcels[s] = parcelCost.applyAsDouble(storeIds[s]);
+            }
+        }
+
+        /** Lowers the demand to what all stores together can supply. */
+        Map<Integer, Integer> capDemand() {
+            Map<Integer, Integer> unfilled = new LinkedHashMap<>();
+            for (int line = 0; line < demand.length; line++) {
+                long supply = 0;
+                for (int available : offerAvailable[line]) {
+                    supply += available;
+                }
+                if (supply < demand[line]) {
+                    unfilled.put(bookIds[line], (int) (demand[line] - supply));
+                    demand[line] = (int) supply;
+                }
+            }
+            return unfilled;
+        }
+
+        /**
+         * Allocates every line from its cheapest offers in the open stores.
+         * @return The stores actually shipping, or null if the open stores
+         * cannot supply the cart.
+         */
+        boolean[] used(boolean[] open) {
+            boolean[] used = new boolean[open.length];
+            for (int line = 0; line < demand.length; line++) {
+                int remaining = demand[line];
+                for (int k = 0; k < offerStore[line].length && remaining > 0; k++) {
+                    int store = offerStore[line][k];
+                    if (open[store] && offerAvailable[line][k] > 0) {
+                        remaining -= Math.min(remaining, offerAvailable[line][k]);
+                        used[store] = true;
+                    }
+                }
+                if (remaining > 0) {
+                    return null;
+                }
+            }
+            return used;
+        }
+
+        /** Cost of the allocation of {@link #used(boolean[])}. */
+        double cost(boolean[] stores) {
+            if (stores == null) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double cost = 0;
+            for (int s = 0; s < stores.length; s++) {
+                if (stores[s]) {
+                    cost += parcels[s];
+                }
+            }
+            for (int line = 0; line < demand.length; line++) {
+                int remaining = demand[line];
+                for (int k = 0; k < offerStore[line].length && remaining > 0; k++) {
+                    if (stores[offerStore[line][k]]) {
+                        int take = Math.min(remaining, offerAvailable[line][k]);
+                        cost += take * offerCost[line][k];
+                        remaining -= take;
+                    }
+                }
+            }
+            return cost;
+        }
+
+        FulfilmentPlan toPlan(boolean[] stores, Map<Integer, Integer> unfilled, boolean complete) {
+            Map<Integer, List<FulfilmentPlan.Allocation>> shipments = new LinkedHashMap<>();
+            double goods = 0;
+            double shipping = 0;
+            for (int line = 0; line < demand.length; line++) {
+                int remaining = demand[line];
+                for (int k = 0; k < offerStore[line].length && remaining > 0; k++) {
+                    if (stores[offerStore[line][k]]) {
+                        int take = Math.min(remaining, offerAvailable[line][k]);
+                        if (take > 0) {
+                            shipments.computeIfAbsent(storeIds[offerStore[line][k]], id -> new ArrayList<>())
+                                    .add(new FulfilmentPlan.Allocation(offerStock[line][k], take,
+                                            offerCost[line][k]));
+                            goods += take * offerCost[line][k];
+                            remaining -= take;
+                        }
+                    }
+                }
+            }
+            for (int s = 0; s < stores.length; s++) {
+                if (stores[s]) {
+                    shipping += parcels[s];
+                }
+            }
+            return new FulfilmentPlan(shipments, unfilled, goods, shipping, complete);
+        }
+    }
+}
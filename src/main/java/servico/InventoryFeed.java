@@ -0,0 +1,233 @@
+package servico;
+
+import dominio.Stock;
+import dominio.StockListener;
+import util.Validator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Feed of the inventory changes of one bookstore, for invalidating derived
+ * views such as price lists, best sellers or availability.
+ * <p>
+ * The feed listens to the store's {@link Stock} entries and records every
+ * change of cost or quantity on hand as an event (book ID, field, new value,
+ * sequence) in a fixed ring buffer of parallel atomic arrays of
+ * primitives, so publishing allocates nothing. Writers take a sequence with
+ * an atomic increment, claim the slot, fill it and then publish the
+ * sequence in the slot, so changes made concurrently by checkouts never
+ * block each other. Every access to a slot is volatile, so a reader that
+ * sees the same published sequence before and after copying the payload
+ * has copied a whole event.
+ * </p>
+ * <p>
+ * Each {@link Subscriber} reads at its own pace from its own cursor. The
+ * ring keeps the latest {@link #getCapacity()} events: a subscriber that
+ * falls further behind is told how many events it missed through
+ * {@link Handler#onGap(long, long)} and resumes from the oldest one still
+ * held, at which point it should drop whatever it derived from the store.
+ * Events of the same book made concurrently may be sequenced in either
+ * order, so a value is best treated as a hint and the event as a signal to
+ * read the entry again.
+ * </p>
+ */
+public class InventoryFeed implements StockListener {
+
+    /** Field of an event changing the unit cost. */
+    public static final byte COST = 0;
+    /** Field of an event changing the quantity on hand. */
+    public static final byte QTY = 1;
+
+    /** Default number of events kept. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Receives the events read by a {@link Subscriber}.
+     */
+    public interface Handler {
+
+        /**
+         * @param bookId The book whose entry changed.
+         * @param field {@link #COST} or {@link #QTY}.
+         * @param value The new value.
+         * @param sequence The sequence of the event.
+         */
+        void onChange(int bookId, byte field, double value, long sequence);
+
+        /**
+         * Called when events were overwritten before the subscriber read
+         * them.
+         * @param from The first missed sequence.
+         * @param to The last missed sequence.
+         */
+        default void onGap(long from, long to) {
+        }
+    }
+
+    private final int mask;
+    // Book ID and field of each slot, as bookId << 8 | field.
+    private final AtomicLongArray keys;
+    // Raw bits of the value of each slot.
+    private final AtomicLongArray values;
+    // Sequence held by each slot, written last so that it publishes the
+    // slot: -1 when empty, -(sequence + 2) while the writer of that
+    // sequence fills it.
+    private final AtomicLongArray published;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Creates a feed keeping {@link #DEFAULT_CAPACITY} events.
+     */
+    public InventoryFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of events kept. Must be a positive power of two.
+     */
+    public InventoryFeed(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a positive power of two");
+        }
+        mask = capacity - 1;
+        keys = new AtomicLongArray(capacity);
+        values = new AtomicLongArray(capacity);
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    @Override
+    public void costChanged(Stock stock, double previousCost) {
+        publish(stock.getBook().getId(), COST, stock.getCost());
+    }
+
+    @Override
+    public void qtyChanged(Stock stock, int previousQty, int qty) {
+        publish(stock.getBook().getId(), QTY, qty);
+    }
+
+    /**
+     * Records an event.
+     * @param bookId The book whose entry changed.
+     * @param field {@link #COST} or {@link #QTY}.
+     * @param value The new value.
+     * @return The sequence of the event.
+     */
+    public long publish(int bookId, byte field, double value) {
+        long sequence = next.getAndIncrement();
+        int slot = (int) sequence & mask;
+        // Claims the slot, which also marks it as being rewritten for
+        // readers checking it.
+        while (true) {
+            long current = published.get(slot);
+            long owner = current < -1 ? -current - 2 : current;
+            if (owner >= sequence) {
+                // Lapped by a later event: ours is already overwritten.
+                return sequence;
+            }
+            if (current < -1) {
+                // A writer a full ring behind is still filling the slot.
+                Thread.yield();
+            } else if (published.compareAndSet(slot, current, -sequence - 2)) {
+                break;
+            }
+        }
+        keys.set(slot, ((long) bookId << 8) | (field & 0xFF));
+        values.set(slot, Double.doubleToRawLongBits(value));
+        published.set(slot, sequence);
+        return sequence;
+    }
+
+    /**
+     * @return A subscriber that reads the events published from now on.
+     */
+    public Subscriber subscribe() {
+        return new Subscriber(next.get());
+    }
+
+    /** @return The sequence the next event will get. */
+    public long getSequence() {
+        return next.get();
+    }
+
+    /** @return Number of events kept. */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * A cursor over the feed. Not thread-safe: each consumer owns one.
+     */
+    public final class Subscriber {
+
+        private long cursor;
+        private long missed;
+
+        private Subscriber(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Reads the events published since the previous call, in sequence
+         * order, stopping at the first one still being written.
+         * @param handler Receives the events. Must not be null.
+         * @param max Maximum number of events read.
+         * @return Number of events passed to the handler.
+         */
+        public int poll(Handler handler, int max) {
+            Validator.notNull(handler, "handler");
+            int read = 0;
+            while (read < max && cursor < next.get()) {
+                long oldest = next.get() - (mask + 1);
+                if (cursor < oldest) {
+                    skipTo(handler, oldest);
+                    continue;
+                }
+                int slot = (int) cursor & mask;
+                if (published.get(slot) != cursor) {
+                    if (published.get(slot) > cursor) {
+                        // Lapped while reading.
+                        skipTo(handler, Math.max(cursor + 1, next.get() - (mask + 1)));
+                        continue;
+                    }
+                    // Claimed but not yet published.
+                    break;
+                }
+                long key = keys.get(slot);
+                double value = Double.longBitsToDouble(values.get(slot));
+                if (published.get(slot) != cursor) {
+                    // Overwritten while being copied.
+                    continue;
+                }
+                handler.onChange((int) (key >> 8), (byte) key, value, cursor);
+                cursor++;
+                read++;
+            }
+            return read;
+        }
+
+        /** @return The sequence of the next event to read. */
+        public long getCursor() {
+            return cursor;
+        }
+
+        /** @return Number of events published but not read yet. */
+        public long getLag() {
+            return Math.max(0, next.get() - cursor);
+        }
+
+        /** @return Total number of events this subscriber missed. */
+        public long getMissedCount() {
+            return missed;
+        }
+
+        private void skipTo(Handler handler, long sequence) {
+            handler.onGap(cursor, sequence - 1);
+            missed += sequence - cursor;
+            cursor = sequence;
+        }
+    }
+}
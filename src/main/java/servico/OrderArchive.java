@@ -0,0 +1,295 @@
+package servico;
+
+import dominio.Address;
+import dominio.CCTransaction;
+import dominio.CreditCards;
+import dominio.Customer;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.ShipTypes;
+import dominio.StatusTypes;
+import util.Validator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cold storage tier for old orders, backed by a memory-mapped file.
+ * <p>
+ * Each archived {@link Order} is encoded as a compact binary record that
+ * references customers, addresses, countries and books by ID, so the
+ * object graph of the order no longer lives on the heap. {@link #write(Order)}
+ * returns a {@link Handle} that the {@link OrderLog} keeps in place of the
+ * order and that decodes it again on demand.
+ * </p>
+ * <p>
+ * The file grows in fixed-size mapped segments; a record never spans two
+ * segments. Writes are serialized, reads use absolute positions and may run
+ * concurrently.
+ * </p>
+ */
+public class OrderArchive implements Closeable {
+
+    private static final int SEGMENT_BITS = 24;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    // Files of the archives open in this JVM; reopening one would truncate
+    // the records its mapped segments still point to.
+    private static final Set<Path> OPEN_FILES = ConcurrentHashMap.newKeySet();
+
+    private final Path file;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private int writeOffset = SEGMENT_SIZE;
+    private int records;
+
+    /**
+     * Opens a new archive, truncating the file if it already exists.
+     * @param file The backing file. Must not be null.
+     * @throws IOException if the file cannot be opened.
+     * @throws IllegalStateException if another archive open in this JVM
+     * uses the file.
+     */
+    public OrderArchive(Path file) throws IOException {
+        this.file = Validator.notNull(file, "file").toAbsolutePath().normalize();
+        if (!OPEN_FILES.add(this.file)) {
+            throw new IllegalStateException("Archive file already in use: " + this.file);
+        }
+        try {
+            this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            OPEN_FILES.remove(this.file);
+            throw e;
+        }
+    }
+
+    /**
+     * Lightweight reference to an archived order. A serialized handle is
+     * replaced by the decoded order, so logs holding handles stay
+     * serializable.
+     */
+    public static final class Handle implements Serializable {
+
+        private static final long serialVersionUID = 3187020431164979202L;
+
+        private final transient OrderArchive archive;
+        private final long position;
+
+        private Handle(OrderArchive archive, long position) {
+            this.archive = archive;
+            this.position = position;
+        }
+
+        /** @return A newly decoded copy of the archived order. */
+        public Order load() {
+            return archive.read(position);
+        }
+
+        /** @return The status of the archived order, read without decoding it. */
+        public StatusTypes getStatus() {
+            return archive.readStatus(position);
+        }
+
+        private Object writeReplace() {
+            return load();
+        }
+    }
+
+    /**
+     * Encodes an order at the end of the archive.
+     * @param order The order. Must not be null.
+     * @return The handle to read the order back.
+     */
+    public synchronized Handle write(Order order) {
+        Validator.notNull(order, "order");
+        ByteBuffer record = encode(order);
+        int length = record.remaining();
+        if (length > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Order " + order.getId() + " is too large to archive");
+        }
+        if (writeOffset + length > SEGMENT_SIZE) {
+            addSegment();
+        }
+        int segment = segments.length - 1;
+        ByteBuffer target = segments[segment].duplicate();
+        target.position(writeOffset);
+        target.put(record);
+        long position = ((long) segment << SEGMENT_BITS) | writeOffset;
+        writeOffset += length;
+        records++;
+        return new Handle(this, position);
+    }
+
+    /** @return Number of orders written to the archive. */
+    public synchronized int getRecordCount() {
+        return records;
+    }
+
+    /** @return Number of bytes reserved by the mapped segments. */
+    public long getMappedBytes() {
+        return (long) segments.length * SEGMENT_SIZE;
+    }
+
+    /**
+     * Closes the file and releases it for a new archive. Handles of this
+     * archive must not be read afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+            OPEN_FILES.remove(file);
+        }
+    }
+
+    private void addSegment() {
+        MappedByteBuffer[] current = segments;
+        try {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) current.length * SEGMENT_SIZE, SEGMENT_SIZE);
+            MappedByteBuffer[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = segment;
+            segments = updated;
+            writeOffset = 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grow order archive", e);
+        }
+    }
+
+    private ByteBuffer at(long position) {
+        ByteBuffer buffer = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+        buffer.position((int) (position & (SEGMENT_SIZE - 1)));
+        return buffer;
+    }
+
+    private StatusTypes readStatus(long position) {
+        return StatusTypes.values()[at(position).get()];
+    }
+
+    private ByteBuffer encode(Order order) {
+        scratch.clear();
+        CCTransaction cc = order.getCC();
+        List<OrderLine> lines = order.getLines();
+        double discount = lines.isEmpty() ? 0 : lines.get(0).getDiscount();
+        String comment = lines.isEmpty() ? "" : lines.get(0).getComments();
+
+        ensure(128);
+        scratch.put((byte) order.getStatus().ordinal());
+        scratch.putInt(order.getId());
+        scratch.putInt(order.getCustomer().getId());
+        scratch.putLong(order.getDate().getTime());
+        scratch.putDouble(order.getSubtotal());
+        scratch.putDouble(order.getTax());
+        scratch.putDouble(order.getTotal());
+        scratch.put((byte) order.getShipType().ordinal());
+        scratch.putLong(order.getShipDate().getTime());
+        scratch.putInt(order.getBillingAddress().getId());
+        scratch.putInt(order.getShippingAddress().getId());
+
+        scratch.put((byte) cc.getType().ordinal());
+        for (long part : cc.getNum()) {
+            scratch.putLong(part);
+        }
+        putString(cc.getName());
+        ensure(64);
+        scratch.putLong(cc.getExpire().getTime());
+        putString(cc.getAuthId());
+        ensure(64);
+        scratch.putDouble(cc.getAmount());
+        scratch.putLong(cc.getDate().getTime());
+        scratch.putInt(cc.getCountry().getId());
+
+        scratch.putDouble(discount);
+        putString(comment);
+        ensure(4 + 8 * lines.size());
+        scratch.putInt(lines.size());
+        for (OrderLine line : lines) {
+            scratch.putInt(line.getBook().getId());
+            scratch.putInt(line.getQty());
+        }
+        scratch.flip();
+        return scratch;
+    }
+
+    private Order read(long position) {
+        ByteBuffer in = at(position);
+        StatusTypes status = StatusTypes.values()[in.get()];
+        int id = in.getInt();
+        Customer customer = Bookstore.getCustomer(in.getInt())
+                .orElseThrow(() -> new IllegalStateException("Archived customer not found"));
+        Date date = new Date(in.getLong());
+        double subtotal = in.getDouble();
+        double tax = in.getDouble();
+        double total = in.getDouble();
+        ShipTypes shipType = ShipTypes.values()[in.get()];
+        Date shipDate = new Date(in.getLong());
+        Address billing = Bookstore.getAddress(in.getInt());
+        Address shipping = Bookstore.getAddress(in.getInt());
+
+        CreditCards type = CreditCards.values()[in.get()];
+        long[] num = new long[4];
+        for (int i = 0; i < num.length; i++) {
+            num[i] = in.getLong();
+        }
+        String name = getString(in);
+        Date expire = new Date(in.getLong());
+        String authId = getString(in);
+        double amount = in.getDouble();
+        Date ccDate = new Date(in.getLong());
+        CCTransaction cc = new CCTransaction(type, num, name, expire, authId,
+                amount, ccDate, Bookstore.getCountry(in.getInt()));
+
+        double discount = in.getDouble();
+        String comment = getString(in);
+        int count = in.getInt();
+        List<OrderLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int bookId = in.getInt();
+            int qty = in.getInt();
+            lines.add(new OrderLine(Bookstore.getBook(bookId)
+                    .orElseThrow(() -> new IllegalStateException("Archived book not found")),
+                    qty, discount, comment));
+        }
+        return new Order(id, customer, date, subtotal, tax, total, shipType,
+                shipDate, status, billing, shipping, cc, lines);
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        scratch.putInt(bytes.length);
+        scratch.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void ensure(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2,
+                    scratch.position() + bytes));
+            scratch.flip();
+            larger.put(scratch);
+            scratch = larger;
+        }
+    }
+}
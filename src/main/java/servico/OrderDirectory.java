@@ -0,0 +1,96 @@
+package servico;
+
+import util.Validator;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Market-wide directory from a global order ID to the bookstore that holds
+ * the order and its position (slot) in that store's order log.
+ * <p>
+ * Entries live in fixed-size chunks of packed {@code long}s indexed by order
+ * ID, so a lookup is two array reads. Chunks are only allocated under the
+ * directory's monitor; entries are written and read without locking, so
+ * stores confirming orders concurrently never contend unless a new chunk is
+ * needed.
+ * </p>
+ */
+public class OrderDirectory {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[16];
+
+    /**
+     * Records where an order is stored.
+     * @param orderId The global order ID.
+     * @param storeId The ID of the bookstore holding the order.
+     * @param slot The position of the order in the store's order log.
+     */
+    public void record(int orderId, int storeId, int slot) {
+        Validator.notNegative(orderId, "orderId");
+        Validator.notNegative(storeId, "storeId");
+        Validator.notNegative(slot, "slot");
+        chunkFor(orderId).set(orderId & CHUNK_MASK, pack(storeId, slot));
+    }
+
+    /**
+     * @param orderId The global order ID.
+     * @return The ID of the bookstore holding the order, or -1 if unknown.
+     */
+    public int getStoreId(int orderId) {
+        long entry = entry(orderId);
+        return entry == 0 ? -1 : (int) (entry >>> 32) - 1;
+    }
+
+    /**
+     * @param orderId The global order ID.
+     * @return The position of the order in its store's log, or -1 if unknown.
+     */
+    public int getSlot(int orderId) {
+        long entry = entry(orderId);
+        return entry == 0 ? -1 : (int) entry;
+    }
+
+    private long entry(int orderId) {
+        if (orderId < 0) {
+            return 0;
+        }
+        AtomicLongArray[] current = chunks;
+        int chunk = orderId >>> CHUNK_BITS;
+        if (chunk >= current.length || current[chunk] == null) {
+            return 0;
+        }
+        return current[chunk].get(orderId & CHUNK_MASK);
+    }
+
+    private AtomicLongArray chunkFor(int orderId) {
+        int chunk = orderId >>> CHUNK_BITS;
+        AtomicLongArray[] current = chunks;
+        if (chunk < current.length && current[chunk] != null) {
+            return current[chunk];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (chunk >= current.length) {
+                current = Arrays.copyOf(current, Math.max(chunk + 1, current.length * 2));
+            }
+            if (current[chunk] == null) {
+                current[chunk] = new AtomicLongArray(CHUNK_SIZE);
+            }
+            chunks = current;
+            return current[chunk];
+        }
+    }
+
+    /**
+     * Packs a store ID and slot; the store is shifted by one so that zero
+     * marks an empty entry.
+     */
+    private static long pack(int storeId, int slot) {
+        return ((long) (storeId + 1) << 32) | slot;
+    }
+}
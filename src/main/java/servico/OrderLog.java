@@ -0,0 +1,163 @@
+package servico;
+
+import dominio.Order;
+import dominio.StatusTypes;
+import util.Validator;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Append-only log of the orders of a bookstore, indexed by creation order.
+ * <p>
+ * Orders are stored in fixed-size chunks that never move once allocated, so
+ * appending costs no per-order node and readers never see a partially
+ * copied array. The number of visible orders is published through a
+ * volatile length after each append: readers take that length as a
+ * consistent prefix and iterate it without locking or copying, while a
+ * single writer at a time appends under the log's monitor.
+ * </p>
+ * <p>
+ * Finished orders can be moved to an {@link OrderArchive} with
+ * {@link #archive(int, OrderArchive)}. Their slot then holds a small
+ * {@link OrderArchive.Handle} and the order is decoded again whenever it is
+ * read, so only the recent orders stay on the heap.
+ * </p>
+ */
+public class OrderLog extends AbstractList<Order> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 6412019842372217365L;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Object[][] chunks = new Object[1][];
+    private volatile int length;
+
+    /**
+     * Appends an order to the end of the log.
+     * @param order The order. Must not be null.
+     * @return The position of the order in the log.
+     */
+    public synchronized int append(Order order) {
+        Validator.notNull(order, "order");
+        int index = length;
+        int chunk = index >>> CHUNK_BITS;
+        Object[][] current = chunks;
+        if (chunk >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][index & CHUNK_MASK] = order;
+        chunks = current;
+        length = index + 1;
+        return index;
+    }
+
+    /**
+     * Returns the order at a position of the log.
+     * @param index The position, in creation order.
+     * @return The order; archived orders are decoded into a new instance.
+     * @throws IndexOutOfBoundsException if the position is not published yet.
+     */
+    @Override
+    public Order get(int index) {
+        return resolve(slot(index));
+    }
+
+    /**
+     * Returns the status of the order at a position of the log without
+     * decoding it when it is archived.
+     * @param index The position, in creation order.
+     * @return The status of the order.
+     * @throws IndexOutOfBoundsException if the position is not published yet.
+     */
+    public StatusTypes getStatus(int index) {
+        Object slot = slot(index);
+        return slot instanceof OrderArchive.Handle
+                ? ((OrderArchive.Handle) slot).getStatus()
+                : ((Order) slot).getStatus();
+    }
+
+    /**
+     * @param index The position, in creation order.
+     * @return Whether the order at that position lives in an archive.
+     * @throws IndexOutOfBoundsException if the position is not published yet.
+     */
+    public boolean isArchived(int index) {
+        return slot(index) instanceof OrderArchive.Handle;
+    }
+
+    /**
+     * Writes the order at a position to an archive and keeps only its handle
+     * in the log. Archiving an already archived order does nothing.
+     * @param index The position, in creation order.
+     * @param archive The archive to write to. Must not be null.
+     * @return Whether the order was archived by this call.
+     * @throws IndexOutOfBoundsException if the position is not published yet.
+     */
+    public synchronized boolean archive(int index, OrderArchive archive) {
+        Validator.notNull(archive, "archive");
+        Object slot = slot(index);
+        if (slot instanceof OrderArchive.Handle) {
+            return false;
+        }
+        // The handle only has final fields, so lock-free readers that see
+        // it also see it fully built.
+        chunks[index >>> CHUNK_BITS][index & CHUNK_MASK] = archive.write((Order) slot);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Iterates the orders published at the time of the call, newest first.
+     * Orders appended during the iteration are not visited.
+     * @return A lock-free iterable over a consistent prefix of the log.
+     */
+    public Iterable<Order> newestFirst() {
+        final int published = length;
+        final Object[][] snapshot = chunks;
+        return () -> new Iterator<Order>() {
+            private int next = published - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Order next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int index = next--;
+                return resolve(snapshot[index >>> CHUNK_BITS][index & CHUNK_MASK]);
+            }
+        };
+    }
+
+    private Object slot(int index) {
+        int published = length;
+        if (index < 0 || index >= published) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + published);
+        }
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    private static Order resolve(Object slot) {
+        return slot instanceof OrderArchive.Handle
+                ? ((OrderArchive.Handle) slot).load()
+                : (Order) slot;
+    }
+}
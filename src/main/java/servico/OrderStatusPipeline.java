@@ -0,0 +1,127 @@
+package servico;
+
+import util.Validator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background driver of the order lifecycle of a set of bookstores.
+ * <p>
+ * At a fixed period the pipeline asks every {@link Bookstore} to move a
+ * batch of its open orders one step forward (PENDING to PROCESSING or
+ * DENIED, PROCESSING to SHIPPED) through
+ * {@link Bookstore#advanceOrders(int)}. Throughput and backlog are exposed
+ * so the pipeline can be monitored.
+ * </p>
+ */
+public class OrderStatusPipeline {
+
+    private final List<Bookstore> stores;
+    private final int batchSize;
+    private final AtomicLong transitions = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastFailure;
+    private ScheduledExecutorService scheduler;
+    private long startedAt;
+
+    /**
+     * @param stores The bookstores whose orders are advanced. Must not be null.
+     * @param batchSize Maximum number of orders moved per store and run.
+     */
+    public OrderStatusPipeline(List<Bookstore> stores, int batchSize) {
+        this.stores = new ArrayList<>(Validator.notNull(stores, "stores"));
+        this.batchSize = Validator.notNegative(batchSize, "batchSize");
+    }
+
+    /**
+     * Starts running batches in a background thread.
+     * @param periodMillis Delay between two runs, in milliseconds.
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-status-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startedAt = System.nanoTime();
+        scheduler.scheduleWithFixedDelay(this::runOnce, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread, letting a running batch finish.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs one batch on every store. A store whose batch fails is counted
+     * in {@link #getFailureCount()} and skipped until the next run, so a
+     * failure neither stops the other stores nor cancels the schedule.
+     * @return Number of status transitions applied.
+     */
+    public int runOnce() {
+        int moved = 0;
+        for (Bookstore store : stores) {
+            try {
+                moved += store.advanceOrders(batchSize);
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                lastFailure = e;
+            }
+        }
+        transitions.addAndGet(moved);
+        batches.incrementAndGet();
+        return moved;
+    }
+
+    /** @return Total number of status transitions applied by this pipeline. */
+    public long getTransitionCount() {
+        return transitions.get();
+    }
+
+    /** @return Number of batches run so far. */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** @return Number of store batches that failed so far. */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /** @return The latest failure of a store batch, or null if none. */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /** @return Number of orders still waiting to reach a final status. */
+    public int getBacklog() {
+        return stores.stream().mapToInt(Bookstore::getOrderBacklog).sum();
+    }
+
+    /**
+     * @return Average transitions per second since {@link #start(long)}, or
+     * zero if the pipeline was never started.
+     */
+    public synchronized double getThroughput() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        return seconds > 0 ? transitions.get() / seconds : 0;
+    }
+}
@@ -0,0 +1,187 @@
+package servico;
+
+import util.Validator;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Date-partitioned index of the orders of a bookstore.
+ * <p>
+ * Orders are bucketed by date into fixed-length periods (one day by
+ * default). Each partition keeps the log slots of its orders in compact
+ * parallel arrays with their date, total and units, plus running totals for
+ * the whole partition. A range query only visits the partitions that overlap
+ * the range: partitions fully inside it answer totals from their running
+ * sums, and only the two boundary partitions are filtered order by order.
+ * </p>
+ */
+public class OrderTimeIndex implements Serializable {
+
+    private static final long serialVersionUID = -804112736213360491L;
+
+    /** Length of a daily partition, in milliseconds. */
+    public static final long DAY = 86400000L;
+
+    private final long period;
+    private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+
+    /**
+     * Creates an index with daily partitions.
+     */
+    public OrderTimeIndex() {
+        this(DAY);
+    }
+
+    /**
+     * @param periodMillis Length of each partition, in milliseconds. Must be
+     * positive.
+     */
+    public OrderTimeIndex(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive");
+        }
+        this.period = periodMillis;
+    }
+
+    private static final class Partition implements Serializable {
+
+        private static final long serialVersionUID = 2409871326719207413L;
+
+        int[] slots = new int[16];
+        long[] dates = new long[16];
+        double[] totals = new double[16];
+        int[] units = new int[16];
+        int count;
+        double sumTotal;
+        long sumUnits;
+
+        void add(int slot, long date, double total, int qty) {
+            if (count == slots.length) {
+                int capacity = count * 2;
+                slots = Arrays.copyOf(slots, capacity);
+                dates = Arrays.copyOf(dates, capacity);
+                totals = Arrays.copyOf(totals, capacity);
+                units = Arrays.copyOf(units, capacity);
+            }
+            slots[count] = slot;
+            dates[count] = date;
+            totals[count] = total;
+            units[count] = qty;
+            count++;
+            sumTotal += total;
+            sumUnits += qty;
+        }
+
+        OrderTotals totals() {
+            return new OrderTotals(count, sumTotal, sumUnits);
+        }
+
+        OrderTotals totals(long from, long to) {
+            int n = 0;
+            double total = 0;
+            long qty = 0;
+            for (int i = 0; i < count; i++) {
+                if (dates[i] >= from && dates[i] < to) {
+                    n++;
+                    total += totals[i];
+                    qty += units[i];
+                }
+            }
+            return new OrderTotals(n, total, qty);
+        }
+    }
+
+    /**
+     * Adds an order to the partition of its date.
+     * @param slot The position of the order in the store's order log.
+     * @param dateMillis The order date.
+     * @param total The order total.
+     * @param units The number of units in the order.
+     */
+    public synchronized void record(int slot, long dateMillis, double total, int units) {
+        Validator.notNegative(slot, "slot");
+        partitions.computeIfAbsent(partitionOf(dateMillis), k -> new Partition())
+                .add(slot, dateMillis, total, units);
+    }
+
+    /**
+     * Returns the log slots of the orders dated within a range, in partition
+     * order.
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return The slots of the matching orders.
+     */
+    public synchronized int[] slotsBetween(long from, long to) {
+        int[] result = new int[0];
+        int size = 0;
+        for (Partition partition : overlapping(from, to).values()) {
+            if (size + partition.count > result.length) {
+                result = Arrays.copyOf(result, Math.max(size + partition.count, result.length * 2));
+            }
+            for (int i = 0; i < partition.count; i++) {
+                if (partition.dates[i] >= from && partition.dates[i] < to) {
+                    result[size++] = partition.slots[i];
+                }
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Aggregates the orders dated within a range.
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return Count, sum of totals and units of the matching orders.
+     */
+    public synchronized OrderTotals totalsBetween(long from, long to) {
+        OrderTotals result = OrderTotals.EMPTY;
+        for (Map.Entry<Long, Partition> entry : overlapping(from, to).entrySet()) {
+            result = result.plus(totalsOf(entry.getKey(), entry.getValue(), from, to));
+        }
+        return result;
+    }
+
+    /**
+     * Aggregates the orders dated within a range, one entry per partition.
+     * @param from Start of the range, inclusive.
+     * @param to End of the range, exclusive.
+     * @return The totals keyed by partition start, for partitions holding at
+     * least one matching order.
+     */
+    public synchronized SortedMap<Long, OrderTotals> totalsByPeriod(long from, long to) {
+        SortedMap<Long, OrderTotals> result = new TreeMap<>();
+        for (Map.Entry<Long, Partition> entry : overlapping(from, to).entrySet()) {
+            OrderTotals totals = totalsOf(entry.getKey(), entry.getValue(), from, to);
+            if (totals.getCount() > 0) {
+                result.put(entry.getKey(), totals);
+            }
+        }
+        return result;
+    }
+
+    /** @return Length of each partition, in milliseconds. */
+    public long getPeriod() {
+        return period;
+    }
+
+    private OrderTotals totalsOf(long start, Partition partition, long from, long to) {
+        boolean inside = start >= from && start + period <= to;
+        return inside ? partition.totals() : partition.totals(from, to);
+    }
+
+    private NavigableMap<Long, Partition> overlapping(long from, long to) {
+        if (from >= to) {
+            return new TreeMap<>();
+        }
+        return partitions.subMap(partitionOf(from), true, partitionOf(to - 1), true);
+    }
+
+    private long partitionOf(long dateMillis) {
+        return Math.floorDiv(dateMillis, period) * period;
+    }
+}
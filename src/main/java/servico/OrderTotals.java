@@ -0,0 +1,59 @@
+package servico;
+
+import java.io.Serializable;
+
+/**
+ * Immutable aggregate of a set of orders: how many there are, the sum of
+ * their totals and the number of units (books) they contain.
+ */
+public final class OrderTotals implements Serializable {
+
+    private static final long serialVersionUID = 5712845527902331076L;
+
+    /** Totals of an empty set of orders. */
+    public static final OrderTotals EMPTY = new OrderTotals(0, 0, 0);
+
+    private final int count;
+    private final double total;
+    private final long units;
+
+    /**
+     * @param count Number of orders.
+     * @param total Sum of the order totals.
+     * @param units Number of units ordered.
+     */
+    public OrderTotals(int count, double total, long units) {
+        this.count = count;
+        this.total = total;
+        this.units = units;
+    }
+
+    /** @return Number of orders. */
+    public int getCount() {
+        return count;
+    }
+
+    /** @return Sum of {@code Order.getTotal()} over the orders. */
+    public double getTotal() {
+        return total;
+    }
+
+    /** @return Number of units over all the lines of the orders. */
+    public long getUnits() {
+        return units;
+    }
+
+    /**
+     * @param other The totals to add. Must not be null.
+     * @return The totals of both sets of orders.
+     */
+    public OrderTotals plus(OrderTotals other) {
+        return new OrderTotals(count + other.count, total + other.total,
+                units + other.units);
+    }
+
+    @Override
+    public String toString() {
+        return "OrderTotals{count=" + count + ", total=" + total + ", units=" + units + '}';
+    }
+}
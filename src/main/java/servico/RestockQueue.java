@@ -0,0 +1,258 @@
+package servico;
+
+import dominio.Stock;
+import util.Validator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Replenishment of the stock of one bookstore.
+ * <p>
+ * Each book has a reorder point and a reorder quantity, by default
+ * {@link #DEFAULT_REORDER_POINT} and {@link #DEFAULT_REORDER_QTY}. A sale
+ * that leaves fewer units on hand than the reorder point only
+ * {@link #offer(Stock) files} a low-stock event; a book is filed at most
+ * once until it is restocked. The events are applied later, in batches, by
+ * {@link #drain(int)}, typically from a {@link RestockWorker}, which adds the
+ * reorder quantity to each entry. Without a worker, a checkout restocks the
+ * entries it filed itself with {@link #drain(Collection)}. Pending reorders
+ * and the time from event to restock are exposed for monitoring.
+ * </p>
+ */
+public class RestockQueue {
+
+    /** Default quantity on hand under which a book is reordered. */
+    public static final int DEFAULT_REORDER_POINT = 10;
+    /** Default number of units reordered. */
+    public static final int DEFAULT_REORDER_QTY = 21;
+
+    // Per-book policy, copied on write so checkouts read it without locking;
+    // -1 stands for the default.
+    private volatile int[] reorderPoints = new int[0];
+    private volatile int[] reorderQtys = new int[0];
+
+    // Ring of pending events, guarded by this queue's lock. Events taken
+    // out of order leave a null slot, skipped when the ring is drained.
+    private Stock[] stocks = new Stock[64];
+    private long[] filedAt = new long[64];
+    private int head;
+    private int size;
+    private int count;
+    private final BitSet pending = new BitSet();
+
+    private long restockCount;
+    private long restockedUnits;
+    private long totalDelayNanos;
+    private long maxDelayNanos;
+
+    /**
+     * Sets the reorder policy of a book.
+     * @param bookId The book ID. Must not be negative.
+     * @param reorderPoint Quantity on hand under which the book is reordered.
+     * @param reorderQty Units reordered. Must not be negative.
+     */
+    public synchronized void setPolicy(int bookId, int reorderPoint, int reorderQty) {
+        Validator.notNegative(bookId, "bookId");
+        Validator.notNegative(reorderPoint, "reorderPoint");
+        Validator.notNegative(reorderQty, "reorderQty");
+        int[] points = reorderPoints;
+        int[] qtys = reorderQtys;
+        if (bookId >= points.length) {
+            int length = Math.max(bookId + 1, points.length * 2);
+            points = grow(points, length);
+            qtys = grow(qtys, length);
+        } else {
+            points = points.clone();
+            qtys = qtys.clone();
+        }
+        points[bookId] = reorderPoint;
+        qtys[bookId] = reorderQty;
+        reorderQtys = qtys;
+        reorderPoints = points;
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @return The quantity on hand under which the book is reordered.
+     */
+    public int getReorderPoint(int bookId) {
+        int[] points = reorderPoints;
+        return bookId < points.length && points[bookId] >= 0 ? points[bookId] : DEFAULT_REORDER_POINT;
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @return The number of units reordered for the book.
+     */
+    public int getReorderQty(int bookId) {
+        int[] qtys = reorderQtys;
+        return bookId < qtys.length && qtys[bookId] >= 0 ? qtys[bookId] : DEFAULT_REORDER_QTY;
+    }
+
+    /**
+     * Files a low-stock event if the entry is under its reorder point and
+     * not already waiting for a restock.
+     * @param stock The entry just sold from. Must not be null.
+     * @return Whether an event was filed.
+     */
+    public boolean offer(Stock stock) {
+        int bookId = stock.getBook().getId();
+        if (stock.getQty() >= getReorderPoint(bookId)) {
+            return false;
+        }
+        synchronized (this) {
+            if (pending.get(bookId)) {
+                return false;
+            }
+            pending.set(bookId);
+            if (size == stocks.length) {
+                Stock[] grownStocks = new Stock[size * 2];
+                long[] grownTimes = new long[size * 2];
+                for (int i = 0; i < size; i++) {
+                    grownStocks[i] = stocks[(head + i) % size];
+                    grownTimes[i] = filedAt[(head + i) % size];
+                }
+                stocks = grownStocks;
+                filedAt = grownTimes;
+                head = 0;
+            }
+            int tail = (head + size) % stocks.length;
+            stocks[tail] = stock;
+            filedAt[tail] = System.nanoTime();
+            size++;
+            count++;
+            return true;
+        }
+    }
+
+    /**
+     * Restocks a batch of pending entries, oldest first.
+     * @param batchSize Maximum number of entries restocked. Must not be
+     * negative.
+     * @return Number of entries restocked.
+     * @throws IllegalArgumentException if batchSize is negative.
+     */
+    public int drain(int batchSize) {
+        Validator.notNegative(batchSize, "batchSize");
+        Stock[] batch;
+        long[] times;
+        synchronized (this) {
+            batch = new Stock[Math.min(batchSize, count)];
+            times = new long[batch.length];
+            for (int taken = 0; taken < batch.length; taken++) {
+                skipTaken();
+                batch[taken] = stocks[head];
+                times[taken] = filedAt[head];
+                stocks[head] = null;
+                head = (head + 1) % stocks.length;
+                size--;
+            }
+            count -= batch.length;
+            skipTaken();
+        }
+        return restock(batch, times);
+    }
+
+    /**
+     * Restocks the given entries if they are still waiting in this queue,
+     * ahead of the older ones. Entries not filed, or already taken by
+     * another drain, are skipped. Each entry is looked up through the
+     * pending events, so this is meant for a queue no worker drains, which
+     * only holds the events of the checkouts in progress.
+     * @param entries The entries to restock. Must not be null.
+     * @return Number of entries restocked.
+     */
+    public int drain(Collection<Stock> entries) {
+        Validator.notNull(entries, "entries");
+        Stock[] batch = new Stock[entries.size()];
+        long[] times = new long[batch.length];
+        int taken = 0;
+        synchronized (this) {
+            for (Stock stock : entries) {
+                for (int i = 0; i < size; i++) {
+                    int slot = (head + i) % stocks.length;
+                    if (stocks[slot] == stock) {
+                        batch[taken] = stock;
+                        times[taken] = filedAt[slot];
+                        taken++;
+                        stocks[slot] = null;
+                        count--;
+                        break;
+                    }
+                }
+            }
+            skipTaken();
+        }
+        return restock(Arrays.copyOf(batch, taken), Arrays.copyOf(times, taken));
+    }
+
+    /** Drops the slots at the head of the ring emptied by out-of-order drains. */
+    private void skipTaken() {
+        while (size > 0 && stocks[head] == null) {
+            head = (head + 1) % stocks.length;
+            size--;
+        }
+    }
+
+    private int restock(Stock[] batch, long[] times) {
+        long now = System.nanoTime();
+        int units = 0;
+        for (Stock stock : batch) {
+            int qty = getReorderQty(stock.getBook().getId());
+            stock.addQty(qty);
+            units += qty;
+        }
+        synchronized (this) {
+            for (int i = 0; i < batch.length; i++) {
+                pending.clear(batch[i].getBook().getId());
+                long delay = now - times[i];
+                totalDelayNanos += delay;
+                maxDelayNanos = Math.max(maxDelayNanos, delay);
+            }
+            restockCount += batch.length;
+            restockedUnits += units;
+        }
+        // Sales made while an entry was pending were not filed; a restock
+        // that left it still low files it again.
+        for (Stock stock : batch) {
+            offer(stock);
+        }
+        return batch.length;
+    }
+
+    /** @return Number of entries waiting for a restock. */
+    public synchronized int getPendingCount() {
+        return count;
+    }
+
+    /** @return Number of restocks applied. */
+    public synchronized long getRestockCount() {
+        return restockCount;
+    }
+
+    /** @return Total units added by restocks. */
+    public synchronized long getRestockedUnits() {
+        return restockedUnits;
+    }
+
+    /**
+     * @return Average time, in milliseconds, from a low-stock event to its
+     * restock, or zero before the first restock.
+     */
+    public synchronized double getAverageTimeToRestock() {
+        return restockCount == 0 ? 0 : totalDelayNanos / 1e6 / restockCount;
+    }
+
+    /** @return Longest time, in milliseconds, from event to restock. */
+    public synchronized double getMaxTimeToRestock() {
+        return maxDelayNanos / 1e6;
+    }
+
+    private static int[] grow(int[] values, int length) {
+        int[] grown = Arrays.copyOf(values, length);
+        Arrays.fill(grown, values.length, length, -1);
+        return grown;
+    }
+}
@@ -0,0 +1,120 @@
+package servico;
+
+import util.Validator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background worker that applies the pending restocks of a set of
+ * bookstores.
+ * <p>
+ * At a fixed period the worker drains a batch of every store's
+ * {@link RestockQueue} through {@link Bookstore#applyRestocks(int)}, so
+ * checkouts only sell and file low-stock events. While the worker
+ * runs, its stores leave restocking to it; once stopped, it applies the
+ * entries still pending and their checkouts restock again.
+ * </p>
+ */
+public class RestockWorker {
+
+    private final List<Bookstore> stores;
+    private final int batchSize;
+    private final AtomicLong restocks = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastFailure;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param stores The bookstores to restock. Must not be null.
+     * @param batchSize Maximum number of entries restocked per store and run.
+     */
+    public RestockWorker(List<Bookstore> stores, int batchSize) {
+        this.stores = new ArrayList<>(Validator.notNull(stores, "stores"));
+        this.batchSize = Validator.notNegative(batchSize, "batchSize");
+    }
+
+    /**
+     * Starts running batches in a background thread.
+     * @param periodMillis Delay between two runs, in milliseconds.
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Worker already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "restock-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        stores.forEach(store -> store.setRestockInBackground(true));
+        scheduler.scheduleWithFixedDelay(this::runOnce, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread, letting a running batch finish, and
+     * applies the restocks still pending.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+            stores.forEach(store -> {
+                store.setRestockInBackground(false);
+                store.applyRestocks(Integer.MAX_VALUE);
+            });
+        }
+    }
+
+    /**
+     * Runs one batch on every store. A store whose batch fails is counted
+     * in {@link #getFailureCount()} and skipped until the next run, so a
+     * failure neither stops the other stores nor cancels the schedule.
+     * @return Number of entries restocked.
+     */
+    public int runOnce() {
+        int restocked = 0;
+        for (Bookstore store : stores) {
+            try {
+                restocked += store.applyRestocks(batchSize);
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                lastFailure = e;
+            }
+        }
+        restocks.addAndGet(restocked);
+        batches.incrementAndGet();
+        return restocked;
+    }
+
+    /** @return Total number of entries restocked by this worker. */
+    public long getRestockCount() {
+        return restocks.get();
+    }
+
+    /** @return Number of batches run so far. */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** @return Number of store batches that failed so far. */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /** @return The latest failure of a store batch, or null if none. */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /** @return Number of entries waiting for a restock in every store. */
+    public int getPendingCount() {
+        return stores.stream().mapToInt(Bookstore::getPendingRestockCount).sum();
+    }
+}
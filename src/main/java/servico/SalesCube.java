@@ -0,0 +1,108 @@
+package servico;
+
+import dominio.Book;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.SUBJECTS;
+import util.Validator;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Multi-dimensional sales counters of a bookstore, keyed by book subject,
+ * shipping country and customer discount band.
+ * <p>
+ * The cube is maintained incrementally: {@link #record(Order)} adds the
+ * lines of a shipped order to every cell it belongs to, including the
+ * roll-up cells where one or more dimensions are {@link #ALL}. Any slice is
+ * therefore a single cell lookup and costs O(result). Cubes of several
+ * stores can be combined with {@link #merge(SalesCube)}.
+ * </p>
+ */
+public class SalesCube implements Serializable {
+
+    private static final long serialVersionUID = -2101533437807946314L;
+
+    /** Wildcard value for a dimension, matching every country or band. */
+    public static final int ALL = -1;
+
+    /** Width, in discount percentage points, of each discount band. */
+    public static final int DISCOUNT_BAND_WIDTH = 10;
+
+    private final Map<Long, Map<Book, Integer>> cells = new HashMap<>();
+
+    /**
+     * Returns the discount band of a customer discount.
+     * @param discount Percentage (0-100).
+     * @return The band index, from 0 up to {@code 100 / DISCOUNT_BAND_WIDTH}.
+     */
+    public static int discountBand(double discount) {
+        Validator.notOverrangeInclusive(discount, 0, 100, "discount");
+        return (int) (discount / DISCOUNT_BAND_WIDTH);
+    }
+
+    /**
+     * Adds the lines of an order to the cube.
+     * @param order The order to record. Must not be null.
+     */
+    public synchronized void record(Order order) {
+        Validator.notNull(order, "order");
+        int country = order.getShippingAddress().getCountry().getId();
+        int band = discountBand(order.getCustomer().getDiscount());
+        for (OrderLine line : order.getLines()) {
+            Book book = line.getBook();
+            int subject = book.getSubject().ordinal();
+            for (int mask = 0; mask < 8; mask++) {
+                long key = key(
+                        (mask & 1) == 0 ? subject : ALL,
+                        (mask & 2) == 0 ? country : ALL,
+                        (mask & 4) == 0 ? band : ALL);
+                cells.computeIfAbsent(key, k -> new HashMap<>())
+                        .merge(book, line.getQty(), Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Returns the units sold per book for one slice of the cube.
+     * @param subject The subject, or null for every subject.
+     * @param countryId The shipping country ID, or {@link #ALL}.
+     * @param discountBand The discount band, or {@link #ALL}.
+     * @return A copy of the matching counters; empty if nothing was sold.
+     */
+    public synchronized Map<Book, Integer> slice(SUBJECTS subject, int countryId, int discountBand) {
+        Map<Book, Integer> cell = cells.get(key(
+                subject == null ? ALL : subject.ordinal(), countryId, discountBand));
+        return cell == null ? Collections.emptyMap() : new HashMap<>(cell);
+    }
+
+    /**
+     * Adds every counter of another cube to this one.
+     * @param other The cube to merge. Must not be null.
+     */
+    public void merge(SalesCube other) {
+        Validator.notNull(other, "other");
+        Map<Long, Map<Book, Integer>> snapshot = new HashMap<>();
+        synchronized (other) {
+            other.cells.forEach((key, cell) -> snapshot.put(key, new HashMap<>(cell)));
+        }
+        synchronized (this) {
+            snapshot.forEach((key, cell) -> {
+                Map<Book, Integer> target = cells.computeIfAbsent(key, k -> new HashMap<>());
+                cell.forEach((book, qty) -> target.merge(book, qty, Integer::sum));
+            });
+        }
+    }
+
+    /**
+     * Packs the three coordinates into a cell key; {@link #ALL} maps to zero.
+     */
+    private static long key(int subject, int countryId, int discountBand) {
+        return ((long) (subject + 1) << 48)
+                | ((long) (countryId + 1) << 16)
+                | (discountBand + 1);
+    }
+}
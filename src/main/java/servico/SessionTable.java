@@ -0,0 +1,290 @@
+package servico;
+
+import util.Validator;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Login sessions of the customers, kept in primitive arrays indexed by
+ * customer ID.
+ * <p>
+ * A session is the login time and the expiry time of a customer, in epoch
+ * milliseconds. Refreshing a session moves its expiry forward by the TTL and
+ * allocates nothing once the arrays have grown to the customer count.
+ * </p>
+ * <p>
+ * Expiry is driven by a hierarchical timer wheel of three levels of 64
+ * buckets. The first level holds the sessions due within 64 ticks, one
+ * bucket per tick; each further level covers 64 buckets of the level below.
+ * Buckets are intrusive doubly linked lists over the customer IDs, so a
+ * refresh unlinks and relinks its session in constant time. When the first
+ * level wraps around, the due bucket of the level above is cascaded down.
+ * A sweep thus visits the elapsed ticks, the sessions it expires and the
+ * sessions it cascades, never the whole table; only a pause longer than the
+ * second level re-files every session at once.
+ * </p>
+ */
+public class SessionTable implements Serializable {
+
+    private static final long serialVersionUID = 6051826734018735149L;
+
+    /** Default time after which a session not refreshed expires: 2 hours. */
+    public static final long DEFAULT_TTL = 7200000L;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+    private static final int NONE = -1;
+
+    private final long ttl;
+    private final long tick;
+
+    private long[] logins = new long[0];
+    private long[] expiries = new long[0];
+    // Bucket of each customer, as level * SLOTS + slot, or NONE.
+    private int[] buckets = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private final int[] heads = new int[LEVELS * SLOTS];
+    private long currentTick = Long.MIN_VALUE;
+
+    private int activeCount;
+    private long expiredCount;
+
+    /**
+     * Creates a table whose sessions expire after {@link #DEFAULT_TTL}.
+     */
+    public SessionTable() {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * @param ttlMillis Time after which a session not refreshed expires. Must
+     * be positive.
+     */
+    public SessionTable(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        this.ttl = ttlMillis;
+        this.tick = Math.max(1, ttlMillis / 1024);
+        Arrays.fill(heads, NONE);
+    }
+
+    /**
+     * Starts or refreshes the session of a customer.
+     * @param cId The customer ID. Must not be negative.
+     * @param now The login time.
+     */
+    public synchronized void refresh(int cId, long now) {
+        Validator.notNegative(cId, "Customer ID");
+        if (cId >= buckets.length) {
+            grow(cId + 1);
+        }
+        if (currentTick == Long.MIN_VALUE) {
+            currentTick = Math.floorDiv(now, tick);
+        }
+        logins[cId] = now;
+        expiries[cId] = now + ttl;
+        int bucket = bucketOf(cId, currentTick + 1);
+        if (bucket == buckets[cId]) {
+            return;
+        }
+        if (buckets[cId] == NONE) {
+            activeCount++;
+        } else {
+            unlink(cId);
+        }
+        link(cId, bucket);
+    }
+
+    /**
+     * @param cId The customer ID.
+     * @param now The current time.
+     * @return Whether the customer has a session that has not expired yet.
+     */
+    public synchronized boolean isValid(int cId, long now) {
+        return cId >= 0 && cId < buckets.length && buckets[cId] != NONE
+                && now < expiries[cId];
+    }
+
+    /**
+     * @param cId The customer ID.
+     * @return The login time of the session of the customer, or
+     * {@link Long#MIN_VALUE} when the customer has no session.
+     */
+    public synchronized long getLogin(int cId) {
+        return hasSession(cId) ? logins[cId] : Long.MIN_VALUE;
+    }
+
+    /**
+     * @param cId The customer ID.
+     * @return The expiry time of the session of the customer, or
+     * {@link Long#MIN_VALUE} when the customer has no session.
+     */
+    public synchronized long getExpiry(int cId) {
+        return hasSession(cId) ? expiries[cId] : Long.MIN_VALUE;
+    }
+
+    /**
+     * Ends every session whose expiry time is not after a given time.
+     * @param now The current time.
+     * @return Number of sessions ended by this call.
+     */
+    public synchronized int expire(long now) {
+        long target = Math.floorDiv(now, tick);
+        if (currentTick == Long.MIN_VALUE) {
+            currentTick = target;
+            return 0;
+        }
+        if (target - currentTick > SLOTS * SLOTS) {
+            return rebuild(target, now);
+        }
+        int expired = 0;
+        for (long t = currentTick + 1; t <= target; t++) {
+            expired += advance(t, now);
+        }
+        expiredCount += expired;
+        return expired;
+    }
+
+    /**
+     * @return Number of sessions not ended yet. Sessions past their expiry
+     * are counted until a call to {@link #expire(long)} sweeps them.
+     */
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    /** @return Total number of sessions expired so far. */
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /** @return The time after which a session not refreshed expires. */
+    public long getTtl() {
+        return ttl;
+    }
+
+    private boolean hasSession(int cId) {
+        return cId >= 0 && cId < buckets.length && buckets[cId] != NONE;
+    }
+
+    private int advance(long t, long now) {
+        // The level above is cascaded first, so its sessions due on this
+        // tick reach the first level before it is swept.
+        if ((t & SLOT_MASK) == 0) {
+            if (((t >> SLOT_BITS) & SLOT_MASK) == 0) {
+                cascade(2 * SLOTS + (int) ((t >> (2 * SLOT_BITS)) & SLOT_MASK), t);
+            }
+            cascade(SLOTS + (int) ((t >> SLOT_BITS) & SLOT_MASK), t);
+        }
+        currentTick = t;
+        int bucket = (int) (t & SLOT_MASK);
+        int id = heads[bucket];
+        heads[bucket] = NONE;
+        int expired = 0;
+        while (id != NONE) {
+            int following = next[id];
+            buckets[id] = NONE;
+            if (expiries[id] <= now) {
+                activeCount--;
+                expired++;
+            } else {
+                link(id, bucketOf(id, t + 1));
+            }
+            id = following;
+        }
+        return expired;
+    }
+
+    private void cascade(int bucket, long t) {
+        int id = heads[bucket];
+        heads[bucket] = NONE;
+        while (id != NONE) {
+            int following = next[id];
+            link(id, bucketOf(id, t));
+            id = following;
+        }
+    }
+
+    private int rebuild(long target, long now) {
+        Arrays.fill(heads, NONE);
+        currentTick = target;
+        int expired = 0;
+        for (int id = 0; id < buckets.length; id++) {
+            if (buckets[id] == NONE) {
+                continue;
+            }
+            if (expiries[id] <= now) {
+                buckets[id] = NONE;
+                activeCount--;
+                expired++;
+            } else {
+                link(id, bucketOf(id, target + 1));
+            }
+        }
+        expiredCount += expired;
+        return expired;
+    }
+
+    /**
+     * @param base The first tick not swept yet. The first level covers the
+     * 64 ticks from it.
+     */
+    private int bucketOf(int id, long base) {
+        long due = Math.max(Math.floorDiv(expiries[id], tick), base);
+        long delta = due - base;
+        if (delta < SLOTS) {
+            return (int) (due & SLOT_MASK);
+        }
+        if (delta < SLOTS * SLOTS) {
+            return SLOTS + (int) ((due >> SLOT_BITS) & SLOT_MASK);
+        }
+        // Sessions beyond the last level wait in its farthest bucket and are
+        // filed again when it is cascaded.
+        due = Math.min(due, base - 1 + SLOTS * SLOTS * SLOTS);
+        return 2 * SLOTS + (int) ((due >> (2 * SLOT_BITS)) & SLOT_MASK);
+    }
+
+    private void link(int id, int bucket) {
+        int head = heads[bucket];
+        next[id] = head;
+        prev[id] = NONE;
+        if (head != NONE) {
+            prev[head] = id;
+        }
+        heads[bucket] = id;
+        buckets[id] = bucket;
+    }
+
+    private void unlink(int id) {
+        int before = prev[id];
+        int after = next[id];
+        if (before == NONE) {
+            heads[buckets[id]] = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+        buckets[id] = NONE;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(64, buckets.length);
+        while (capacity < minCapacity) {
+            capacity *= 2;
+        }
+        int from = buckets.length;
+        logins = Arrays.copyOf(logins, capacity);
+        expiries = Arrays.copyOf(expiries, capacity);
+        buckets = Arrays.copyOf(buckets, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        Arrays.fill(buckets, from, capacity, NONE);
+    }
+}
@@ -0,0 +1,116 @@
+package servico;
+
+import dominio.Stock;
+import dominio.StockListener;
+import util.Validator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cross-store price index mapping each book ID to its {@link Stock} entries,
+ * kept sorted by ascending cost.
+ * <p>
+ * Every {@link Bookstore} attached to the index registers its stock entries
+ * and forwards cost changes through {@link StockListener}, so price
+ * comparison queries can be answered without visiting each store. Each book
+ * holds an immutable sorted array that is replaced on every change: readers
+ * never lock, writers serialize on the index.
+ * </p>
+ */
+public class StockIndex implements StockListener {
+
+    private static final Comparator<Stock> BY_COST = Comparator
+            .comparingDouble(Stock::getCost)
+            .thenComparingInt(Stock::getIdBookstore);
+
+    private static final Stock[] EMPTY = new Stock[0];
+
+    private final Map<Integer, Stock[]> stocksByBook = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a stock entry to the index and starts listening to its changes.
+     * An entry already present for the same bookstore and book is replaced.
+     * @param stock The stock entry. Must not be null.
+     */
+    public synchronized void add(Stock stock) {
+        Validator.notNull(stock, "stock");
+        int bookId = stock.getBook().getId();
+        Stock[] current = stocksByBook.getOrDefault(bookId, EMPTY);
+        Stock[] updated = new Stock[current.length + 1];
+        int n = 0;
+        for (Stock other : current) {
+            if (other.getIdBookstore() != stock.getIdBookstore()) {
+                updated[n++] = other;
+            }
+        }
+        updated[n++] = stock;
+        updated = Arrays.copyOf(updated, n);
+        Arrays.sort(updated, BY_COST);
+        stocksByBook.put(bookId, updated);
+        stock.addListener(this);
+    }
+
+    /**
+     * Re-sorts the entries of a book after one of its costs has changed.
+     */
+    @Override
+    public synchronized void costChanged(Stock stock, double previousCost) {
+        reindex(stock.getBook().getId());
+    }
+
+    /**
+     * Re-sorts the entries of a book by their current cost.
+     * @param bookId The book ID.
+     */
+    public synchronized void reindex(int bookId) {
+        Stock[] current = stocksByBook.get(bookId);
+        if (current == null) {
+            return;
+        }
+        Stock[] updated = current.clone();
+        Arrays.sort(updated, BY_COST);
+        stocksByBook.put(bookId, updated);
+    }
+
+    /**
+     * Re-sorts the entries of several books, e.g. after a bulk price update.
+     * @param bookIds The book IDs. Must not be null.
+     */
+    public synchronized void reindex(BitSet bookIds) {
+        Validator.notNull(bookIds, "bookIds");
+        for (int bookId = bookIds.nextSetBit(0); bookId >= 0; bookId = bookIds.nextSetBit(bookId + 1)) {
+            reindex(bookId);
+        }
+    }
+
+    /**
+     * Returns the cheapest offer for a book across all indexed stores.
+     * @param bookId The book ID.
+     * @return The lowest-cost stock entry, or empty if no store carries the book.
+     */
+    public Optional<Stock> getCheapest(int bookId) {
+        Stock[] stocks = stocksByBook.get(bookId);
+        return stocks == null || stocks.length == 0
+                ? Optional.empty()
+                : Optional.of(stocks[0]);
+    }
+
+    /**
+     * Returns every offer for a book, ordered by ascending cost.
+     * @param bookId The book ID.
+     * @return An unmodifiable list of stock entries, empty if none exist.
+     */
+    public List<Stock> getStocks(int bookId) {
+        Stock[] stocks = stocksByBook.get(bookId);
+        return stocks == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(stocks));
+    }
+}
@@ -0,0 +1,87 @@
+package servico;
+
+import dominio.Stock;
+import util.Validator;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Stock entries of a bookstore, indexed directly by book ID.
+ * <p>
+ * Book IDs are dense, so the entries sit in an array slot per ID: a lookup
+ * is a bounds check and one load, without resolving the {@link dominio.Book}
+ * or hashing it. Reads do not lock the table; entries are added under its
+ * lock and published through an atomic array that is replaced as it grows.
+ * </p>
+ */
+public class StockTable implements Serializable {
+
+    private static final long serialVersionUID = 6180448412630902471L;
+
+    private volatile AtomicReferenceArray<Stock> stocks = new AtomicReferenceArray<>(64);
+    private int size;
+
+    /**
+     * @param bookId The book ID.
+     * @return The stock of the book, or null if this store does not stock it.
+     */
+    public Stock get(int bookId) {
+        AtomicReferenceArray<Stock> current = stocks;
+        return bookId >= 0 && bookId < current.length() ? current.get(bookId) : null;
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @return Whether this store stocks the book.
+     */
+    public boolean contains(int bookId) {
+        return get(bookId) != null;
+    }
+
+    /**
+     * Adds an entry, replacing any previous entry of the same book.
+     * @param stock The entry. Must not be null.
+     */
+    public synchronized void put(Stock stock) {
+        Validator.notNull(stock, "stock");
+        int bookId = stock.getBook().getId();
+        AtomicReferenceArray<Stock> current = stocks;
+        if (bookId >= current.length()) {
+            int length = current.length();
+            while (length <= bookId) {
+                length *= 2;
+            }
+            AtomicReferenceArray<Stock> grown = new AtomicReferenceArray<>(length);
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            stocks = grown;
+            current = grown;
+        }
+        if (current.getAndSet(bookId, stock) == null) {
+            size++;
+        }
+    }
+
+    /** @return Number of books stocked. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visits every entry in book ID order.
+     * @param action The action to run on each entry. Must not be null.
+     */
+    public void forEach(Consumer<Stock> action) {
+        Validator.notNull(action, "action");
+        AtomicReferenceArray<Stock> current = stocks;
+        for (int i = 0; i < current.length(); i++) {
+            Stock stock = current.get(i);
+            if (stock != null) {
+                action.accept(stock);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package servico;
+
+import dominio.Address;
+import dominio.Book;
+import dominio.Cart;
+import dominio.CartLine;
+import dominio.Country;
+import dominio.ShipTypes;
+import dominio.ShippingCalculator;
+import util.Validator;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Shipping calculator that charges by zone, shipping type and billable
+ * weight.
+ * <p>
+ * Every line ships from the address of its stock. The zone of a shipment is
+ * {@link #DOMESTIC} when it stays in a country, {@link #CURRENCY_AREA} when
+ * both countries share a currency and {@link #INTERNATIONAL} otherwise; the
+ * zone of every pair of countries is computed once, when the calculator is
+ * built. Each origin is a separate parcel that pays the base rate of its
+ * zone plus a rate per billable kilogram, the billable weight being the
+ * larger of the actual and the dimensional weight.
+ * </p>
+ * <p>
+ * Costs are memoized per destination country, shipping type and
+ * {@link Cart#getFingerprint() cart content}, which identifies the stocks
+ * and hence the stores the units ship from, in a bounded least recently
+ * used cache, so repeated quotes of an unchanged cart are a map lookup.
+ * The key also holds the line count, unit count and weight of the cart, so
+ * a fingerprint collision between carts that differ in any of them cannot
+ * return the other cart's cost.
+ * </p>
+ */
+public class ZoneShippingCalculator implements ShippingCalculator {
+
+    /** Zone of a shipment within a country. */
+    public static final int DOMESTIC = 0;
+    /** Zone of a shipment between countries sharing a currency. */
+    public static final int CURRENCY_AREA = 1;
+    /** Zone of any other shipment. */
+    public static final int INTERNATIONAL = 2;
+
+    /** Volume, in cubic centimetres, billed as one kilogram. */
+    public static final double DIM_DIVISOR = 5000;
+
+    /** Default number of memoized costs. */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    // Base rate and rate per kilogram of each zone, by ShipTypes ordinal.
+    private static final double[][] BASE_RATES = {
+        {12.00, 18.00, 30.00}, // AIR
+        {6.00, 10.00, 22.00}, // UPS
+        {8.00, 12.00, 26.00}, // FEDEX
+        {3.00, 5.00, 9.00}, // SHIP
+        {15.00, 24.00, 40.00}, // COURIER
+        {2.00, 4.00, 7.00} // MAIL
+    };
+    private static final double[][] KG_RATES = {
+        {2.50, 4.00, 7.50},
+        {1.20, 2.00, 4.50},
+        {1.50, 2.50, 5.00},
+        {0.40, 0.70, 1.20},
+        {3.00, 5.00, 9.00},
+        {0.80, 1.30, 2.50}
+    };
+
+    private final int countryCount;
+    private final byte[] zones;
+    private final Map<Key, Double> cache;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a calculator with a cache of {@link #DEFAULT_CACHE_SIZE}.
+     * @param countries Every country addresses may refer to. Must not be null.
+     */
+    public ZoneShippingCalculator(Collection<Country> countries) {
+        this(countries, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param countries Every country addresses may refer to. Must not be null.
+     * @param cacheSize Maximum number of memoized costs. Must not be negative.
+     */
+    public ZoneShippingCalculator(Collection<Country> countries, int cacheSize) {
+        Validator.notNull(countries, "countries");
+        Validator.notNegative(cacheSize, "cacheSize");
+        Country[] byId = new Country[countries.stream().mapToInt(Country::getId).max().orElse(-1) + 1];
+        countries.forEach(country -> byId[country.getId()] = country);
+        countryCount = byId.length;
+        zones = new byte[countryCount * countryCount];
+        for (int from = 0; from < countryCount; from++) {
+            for (int to = 0; to < countryCount; to++) {
+                zones[from * countryCount + to] = (byte) zoneOf(byId[from], byId[to]);
+            }
+        }
+        cache = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param from The origin country.
+     * @param to The destination country.
+     * @return The zone of a shipment between two countries.
+     */
+    public int getZone(Country from, Country to) {
+        int f = from.getId();
+        int t = to.getId();
+        return f < countryCount && t < countryCount
+                ? zones[f * countryCount + t]
+                : zoneOf(from, to);
+    }
+
+    @Override
+    public double shipCost(Cart cart, Address destination, ShipTypes type) {
+        Validator.notNull(cart, "cart");
+        Validator.notNull(destination, "destination");
+        Validator.notNull(type, "type");
+        // The lines and the fingerprint are read under the cart lock, so the
+        // key always describes the content that was priced.
+        synchronized (cart) {
+            Key key = new Key(cart, destination.getCountry().getId(), type);
+            synchronized (cache) {
+                Double cost = cache.get(key);
+                if (cost != null) {
+                    hits++;
+                    return cost;
+                }
+            }
+            double cost = compute(cart, destination.getCountry(), type);
+            synchronized (cache) {
+                misses++;
+                cache.put(key, cost);
+            }
+            return cost;
+        }
+    }
+
+    /** @return Number of costs served from the cache. */
+    public long getCacheHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /** @return Number of costs computed. */
+    public long getCacheMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    private double compute(Cart cart, Country destination, ShipTypes type) {
+        // Billable kilograms per origin address, usually one or two entries.
+        Map<Address, double[]> parcels = new LinkedHashMap<>();
+        for (CartLine line : cart.getLines()) {
+            parcels.computeIfAbsent(line.getStock().getAddress(), a -> new double[1])[0]
+                    += billableKg(line.getBook()) * line.getQty();
+        }
+        double cost = 0;
+        for (Map.Entry<Address, double[]> parcel : parcels.entrySet()) {
+            int zone = getZone(parcel.getKey().getCountry(), destination);
+            cost += BASE_RATES[type.ordinal()][zone]
+                    + KG_RATES[type.ordinal()][zone] * parcel.getValue()[0];
+        }
+        return cost;
+    }
+
+    /**
+     * Billable weight of one unit, in kilograms. Dimensions are in
+     * millimetres and weight in grams.
+     */
+    private static double billableKg(Book book) {
+        int[] d = book.getDimensions();
+        double volumeCm3 = d[0] / 10.0 * (d[1] / 10.0) * (d[2] / 10.0);
+        return Math.max(book.getWeight() / 1000.0, volumeCm3 / DIM_DIVISOR);
+    }
+
+    private static int zoneOf(Country from, Country to) {
+        if (from == null || to == null) {
+            return INTERNATIONAL;
+        }
+        if (from.getId() == to.getId()) {
+            return DOMESTIC;
+        }
+        return Objects.equals(from.getCurrency(), to.getCurrency()) ? CURRENCY_AREA : INTERNATIONAL;
+    }
+
+    private static final class Key {
+
+        private final long fingerprint;
+        private final int lines;
+        private final int units;
+        // Weight in millionths, so that the rounding of the running sum
+        // does not split equal carts.
+        private final long weight;
+        private final int country;
+        private final ShipTypes type;
+
+        Key(Cart cart, int country, ShipTypes type) {
+            this.fingerprint = cart.getFingerprint();
+            this.lines = cart.getLineCount();
+            this.units = cart.getItemCount();
+            this.weight = Math.round(cart.getWeight() * 1e6);
+            this.country = country;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return fingerprint == other.fingerprint && lines == other.lines
+                    && units == other.units && weight == other.weight
+                    && country == other.country && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(fingerprint) * 31 + country * 7 + type.ordinal();
+        }
+    }
+}
@@ -258,4 +258,54 @@ public class TPCW_Util {
         return resultString.toString();
     }
 
+    /**
+     * Decodes a string built by {@link #DigSyl(int, int)} back into its
+     * number, padding included, without allocating.
+     *
+     * @param syllables
+     * @return The number, or -1 when the string is not a sequence of
+     * syllables or does not fit an {@code int}.
+     */
+    public static int unDigSyl(CharSequence syllables) {
+        int length = syllables.length();
+        if (length == 0 || (length & 1) != 0) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i += 2) {
+            int digit = syllableDigit(syllables.charAt(i), syllables.charAt(i + 1));
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+
+    private static int syllableDigit(char first, char second) {
+        switch (first) {
+            case 'B':
+                return second == 'A' ? 0 : -1;
+            case 'O':
+                return second == 'G' ? 1 : -1;
+            case 'A':
+                return second == 'L' ? 2 : second == 'T' ? 6 : -1;
+            case 'R':
+                return second == 'I' ? 3 : second == 'E' ? 4 : -1;
+            case 'S':
+                return second == 'E' ? 5 : -1;
+            case 'U':
+                return second == 'L' ? 7 : -1;
+            case 'I':
+                return second == 'N' ? 8 : -1;
+            case 'N':
+                return second == 'G' ? 9 : -1;
+            default:
+                return -1;
+        }
+    }
+
 }
@@ -94,6 +94,16 @@ public class CartTest {
         assertEquals(8.25, cart.tax(0.0), 0.001);
     }
 
+    @Test
+    public void testQuoteUsesCurrentStockCost() {
+        cart.increaseLine(stockJava, 2); // 2 x 100.0
+        stockJava.setCost(80.0);
+        assertEquals(160.0, cart.subTotal(0.0), 0.001);
+        cart.increaseLine(stockSql, 1);  // + 50.0
+        stockJava.setCost(90.0);
+        assertEquals(230.0, cart.subTotal(0.0), 0.001);
+    }
+
     @Test
     public void testClear() {
         cart.increaseLine(stockJava, 1);
@@ -116,6 +126,80 @@ public class CartTest {
         assertEquals(totalEsperado, cart.total(customer), 0.001);
     }
 
+    @Test
+    public void testQuoteMatchesTotals() {
+        cart.increaseLine(stockJava, 2);
+        cart.increaseLine(stockSql, 3);
+        cart.changeLine(stockSql, 1);
+
+        CartQuote quote = cart.quote(customer);
+        assertEquals(3, quote.getItemCount());
+        assertEquals(250.0, quote.getRawCost(), 0.001);
+        assertEquals(3.0, quote.getWeight(), 0.001);
+        assertEquals(225.0, quote.getSubtotal(), 0.001);
+        assertEquals(225.0 * 0.0825, quote.getTax(), 0.001);
+        // Every unit pays 3.0 plus 1.0 per unit in the cart
+        assertEquals(3 * (3.0 + 3), quote.getShipCost(), 0.001);
+        assertEquals(cart.total(customer), quote.getTotal(), 0.001);
+    }
+
+    @Test
+    public void testAggregatesResetWhenEmptied() {
+        cart.increaseLine(stockJava, 2);
+        cart.increaseLine(stockJava, -2);
+        cart.changeLine(stockSql, 1);
+        cart.changeLine(stockSql, 0);
+
+        assertEquals(0, cart.getItemCount());
+        assertEquals(0.0, cart.total(customer), 0.0);
+
+        cart.increaseLine(stockSql, 1);
+        cart.clear();
+        assertEquals(0, cart.quote(customer).getItemCount());
+    }
+
+    @Test
+    public void testConcurrentIncreasesOnSameCart() throws InterruptedException {
+        Stock plenty = new Stock(1, stockJava.getAddress(), stockJava.getBook(), 100.0, 1000000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cart.increaseLine(plenty, 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, cart.getItemCount());
+        assertEquals(4000, cart.getLines().get(0).getQty());
+        assertEquals(400000.0, cart.quote(customer).getRawCost(), 0.001);
+    }
+
+    @Test
+    public void testCartHoldsStockUntilCleared() {
+        cart.changeLine(stockSql, 4);
+        assertEquals(4, stockSql.getReserved());
+
+        Cart other = new Cart(501, new Date());
+        try {
+            other.increaseLine(stockSql, 2);
+            fail("Only one unit should be left for other carts");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        cart.changeLine(stockSql, 3);
+        other.increaseLine(stockSql, 2);
+        assertEquals(5, stockSql.getReserved());
+
+        cart.clear();
+        other.commitReservations();
+        assertEquals(0, stockSql.getReserved());
+        assertEquals(3, stockSql.getQty());
+    }
+
     @Test
     public void testIncreaseLineWithNegativeQuantity() {
         cart.changeLine(stockJava, 5);
@@ -155,4 +239,46 @@ public class CartTest {
     public void testConstructorShouldFailWithNegativeId() {
         new Cart(-1, new Date());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFingerprintDependsOnContentOnly() {
+        Cart other = new Cart(501, new Date());
+        assertEquals(0, cart.getFingerprint());
+
+        cart.increaseLine(stockJava, 2);
+        cart.increaseLine(stockSql, 1);
+        other.increaseLine(stockSql, 1);
+        other.increaseLine(stockJava, 1);
+        assertNotEquals(cart.getFingerprint(), other.getFingerprint());
+
+        other.increaseLine(stockJava, 1);
+        assertEquals(cart.getFingerprint(), other.getFingerprint());
+
+        cart.clear();
+        assertEquals(0, cart.getFingerprint());
+    }
+
+    @Test
+    public void testCommitReservationsIsAllOrNothing() {
+        cart.changeLine(stockJava, 2);
+        cart.changeLine(stockSql, 3);
+        // The hold of one line is lost behind the cart's back.
+        stockSql.release(3);
+
+        try {
+            cart.commitReservations();
+            fail("A lost hold should fail the commit");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(10, stockJava.getQty());
+        assertEquals(2, stockJava.getReserved());
+        assertEquals(5, stockSql.getQty());
+
+        assertTrue(stockSql.reserve(3));
+        cart.commitReservations();
+        assertEquals(8, stockJava.getQty());
+        assertEquals(2, stockSql.getQty());
+        assertEquals(0, stockJava.getReserved());
+        assertEquals(0, stockSql.getReserved());
+    }
+}
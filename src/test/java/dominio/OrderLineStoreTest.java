@@ -0,0 +1,129 @@
+package dominio;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrderLineStoreTest {
+
+    private OrderLineStore store;
+    private Book art;
+    private Book cooking;
+    private Cart cart;
+
+    @Before
+    public void setUp() {
+        Date now = new Date();
+        Country country = new Country(1, "Brasil", "BRL", 1.0);
+        Address address = new Address(1, "Rua A", "", "Cidade", "SP", "123", country);
+        Author author = new Author("John", "D", "Doe", now, "Bio");
+        art = new Book(0, "Art", now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i",
+                10.0, now, "1", 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, author);
+        cooking = new Book(1, "Cooking", now, "Pub", SUBJECTS.COOKING, "Desc", "t", "i",
+                10.0, now, "2", 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, author);
+
+        cart = new Cart(0, now);
+        cart.changeLine(new Stock(0, address, art, 10.0, 100), 3);
+        cart.changeLine(new Stock(0, address, cooking, 10.0, 100), 5);
+        store = new OrderLineStore();
+    }
+
+    @Test
+    public void testAppendReturnsLineView() {
+        List<OrderLine> lines = store.append(0, 7, cart.getLines(), 10.0, "comment");
+
+        assertEquals(2, lines.size());
+        assertEquals(1, store.getOrderCount());
+        for (OrderLine line : lines) {
+            assertEquals("comment", line.getComments());
+            assertEquals(10.0, line.getDiscount(), 0.001);
+        }
+        int total = lines.stream().mapToInt(OrderLine::getQty).sum();
+        assertEquals(8, total);
+    }
+
+    @Test
+    public void testSumQtyByBookWithFilters() {
+        store.append(0, 1, cart.getLines(), 0, "a");
+        store.append(1, 2, cart.getLines(), 0, "b");
+
+        int[] all = store.sumQtyByBook(2, null, null);
+        assertEquals(6, all[art.getId()]);
+        assertEquals(10, all[cooking.getId()]);
+
+        boolean[] artsOnly = {true, false};
+        int[] onlyFirstOrder = store.sumQtyByBook(2, artsOnly, orderId -> orderId == 0);
+        assertEquals(3, onlyFirstOrder[art.getId()]);
+        assertEquals(0, onlyFirstOrder[cooking.getId()]);
+    }
+
+    @Test
+    public void testCustomerKernels() {
+        store.append(0, 1, cart.getLines(), 0, "a");
+        cart.changeLine(new Stock(0, cart.getLines().get(0).getStock().getAddress(), art, 10.0, 100), 0);
+        store.append(1, 2, cart.getLines(), 0, "b");
+
+        BitSet buyers = store.customersWhoBought(art.getId(), 10);
+        assertTrue(buyers.get(1));
+        assertFalse(buyers.get(2));
+
+        int[] sales = store.sumQtyByBookForCustomers(2, buyers);
+        assertEquals(3, sales[art.getId()]);
+        assertEquals(5, sales[cooking.getId()]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testViewIsBounded() {
+        store.append(0, 1, cart.getLines(), 0, "a").get(2);
+    }
+
+    @Test
+    public void testViewsSurviveGrowth() {
+        List<OrderLine> first = store.append(0, 1, cart.getLines(), 0, "first");
+        for (int i = 1; i < 500; i++) {
+            store.append(i, i, cart.getLines(), 0, "o" + i);
+        }
+        assertEquals(500, store.getOrderCount());
+        assertEquals(2, first.size());
+        assertEquals("first", first.get(1).getComments());
+        assertEquals(5, first.get(1).getQty());
+    }
+
+    @Test
+    public void testSerializedViewHoldsOnlyItsLines() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            store.append(i, i, cart.getLines(), 0, "o" + i);
+        }
+        List<OrderLine> lines = store.append(100, 1, cart.getLines(), 5.0, "last");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(lines);
+        }
+        ByteArrayOutputStream storeBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(storeBytes)) {
+            out.writeObject(store);
+        }
+        assertTrue(bytes.size() < storeBytes.size() / 4);
+
+        List<?> copy;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (List<?>) in.readObject();
+        }
+        assertEquals(2, copy.size());
+        OrderLine line = (OrderLine) copy.get(0);
+        assertEquals("last", line.getComments());
+        assertEquals(5.0, line.getDiscount(), 0.001);
+        assertEquals(3, line.getQty());
+    }
+}
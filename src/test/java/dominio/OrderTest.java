@@ -148,4 +148,21 @@ public class OrderTest {
     public void testConstructorShouldFailWithNullCustomer() {
         new Order(1, null, now, cart, "Comment", ShipTypes.AIR, now, StatusTypes.PENDING, address, address, cc);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLifecycleTransitions() {
+        assertTrue(order.isPending());
+        order.transitionTo(StatusTypes.PROCESSING);
+        assertTrue(order.isProcessed());
+        assertFalse(order.isFinished());
+        order.transitionTo(StatusTypes.SHIPPED);
+        assertTrue(order.isShipped());
+        assertTrue(order.isFinished());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidTransitionShouldFail() {
+        order.transitionTo(StatusTypes.SHIPPED);
+    }
+
+}
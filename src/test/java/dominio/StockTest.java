@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StockTest {
 
@@ -55,6 +56,42 @@ public class StockTest {
         stock.addQty(-6);
     }
 
+    @Test
+    public void testQtyCannotDropBelowHeldUnits() {
+        assertTrue(stock.reserve(30));
+        try {
+            stock.setQty(29);
+            fail("Carts would hold units that do not exist");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            stock.addQty(-71);
+            fail("Carts would hold units that do not exist");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(100, stock.getQty());
+        stock.setQty(30);
+        assertEquals(0, stock.getAvailable());
+        stock.commitReservation(30);
+        assertEquals(0, stock.getQty());
+    }
+
+    @Test
+    public void testRemovedListenerIsNotNotified() {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+        StockListener one = (changed, previousCost) -> first.incrementAndGet();
+        StockListener two = (changed, previousCost) -> second.incrementAndGet();
+        stock.addListener(one);
+        stock.addListener(two);
+        stock.setCost(11.0);
+        stock.removeListener(one);
+        stock.removeListener(one);
+        stock.setCost(12.0);
+        assertEquals(1, first.get());
+        assertEquals(2, second.get());
+    }
+
     @Test(expected = Exception.class)
     public void testSetNegativeCostShouldFail() {
         stock.setCost(-1.0);
@@ -89,4 +126,75 @@ public class StockTest {
     public void testConstructorShouldFailWithNegativeId() {
         new Stock(-1, address, book, 10.0, 5);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReservationLifecycle() {
+        assertTrue(stock.reserve(60));
+        assertFalse("Held units cannot be reserved twice", stock.reserve(41));
+        assertEquals(100, stock.getQty());
+        assertEquals(40, stock.getAvailable());
+
+        stock.commitReservation(50);
+        assertEquals(50, stock.getQty());
+        assertEquals(10, stock.getReserved());
+
+        stock.release(10);
+        assertEquals(50, stock.getAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseMoreThanReservedShouldFail() {
+        stock.reserve(1);
+        stock.release(2);
+    }
+
+    @Test
+    public void testConcurrentReservationsNeverOversell() throws InterruptedException {
+        AtomicInteger granted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    if (stock.reserve(1)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, granted.get());
+        assertEquals(0, stock.getAvailable());
+    }
+
+    @Test
+    public void testConcurrentSalesSellEachUnitOnce() throws InterruptedException {
+        Stock shelf = new Stock(1, address, book, 10.0, 20);
+        Thread[] threads = new Thread[8];
+        int[] sales = new int[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int slot = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (shelf.reserve(1)) {
+                        shelf.commitReservation(1);
+                        sales[slot]++;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int total = 0;
+        for (int sold : sales) {
+            total += sold;
+        }
+        assertEquals(20, total);
+        assertEquals(0, shelf.getQty());
+        assertEquals(0, shelf.getReserved());
+    }
+}
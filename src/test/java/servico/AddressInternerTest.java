@@ -0,0 +1,71 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import dominio.Address;
+import dominio.Country;
+
+public class AddressInternerTest {
+
+    private final List<Address> addresses = new ArrayList<>();
+    private final AddressInterner interner = new AddressInterner(addresses::get);
+    private final Country brazil = new Country(0, "Brazil", "BRL", 1);
+    private final Country chile = new Country(1, "Chile", "CLP", 1);
+
+    private Address add(String street1, String city, Country country) {
+        Address address = new Address(addresses.size(), street1, "", city, "SP", "01000",
+                country);
+        addresses.add(address);
+        interner.add(address);
+        return address;
+    }
+
+    @Test
+    public void testFindByComponents() {
+        Address first = add("Rua A, 1", "Campinas", brazil);
+        add("Rua A, 1", "Campinas", chile);
+        add("Rua A, 2", "Campinas", brazil);
+
+        assertEquals(first.getId(), interner.find("Rua A, 1", "", "Campinas", "SP", "01000", 0));
+        assertEquals(1, interner.find("Rua A, 1", "", "Campinas", "SP", "01000", 1));
+        assertEquals(-1, interner.find("Rua A, 3", "", "Campinas", "SP", "01000", 0));
+        assertEquals(3, interner.size());
+    }
+
+    @Test
+    public void testLaterDuplicateWins() {
+        add("Rua B", "Santos", brazil);
+        Address second = add("Rua B", "Santos", brazil);
+        assertEquals(second.getId(), interner.find("Rua B", "", "Santos", "SP", "01000", 0));
+        assertEquals(1, interner.size());
+    }
+
+    @Test
+    public void testGrowsAndStaysReachable() {
+        for (int i = 0; i < 5000; i++) {
+            add("Street " + i, "City " + (i % 7), brazil);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, interner.find("Street " + i, "", "City " + (i % 7), "SP", "01000", 0));
+        }
+    }
+
+    @Test
+    public void testHashSeparatesShiftedFields() {
+        assertNotEquals(AddressInterner.hash("ab", "c", "x", "y", "z", 0),
+                AddressInterner.hash("a", "bc", "x", "y", "z", 0));
+        // Sequential house numbers should spread over the low bits.
+        Set<Integer> buckets = new HashSet<>();
+        for (int i = 0; i < 1024; i++) {
+            buckets.add(AddressInterner.hash("Rua " + i, "", "Campinas", "SP", "01000", 0) & 1023);
+        }
+        assertTrue("Poorly spread hash: " + buckets.size(), buckets.size() > 550);
+    }
+}
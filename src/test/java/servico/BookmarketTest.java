@@ -5,6 +5,7 @@ import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -252,6 +253,120 @@ public class BookmarketTest {
         assertEquals("", order, recentOrder);
     }
 
+    @Test
+    public void testDoCartDelta() {
+        int cartId = Bookmarket.createEmptyCart(0);
+        Book first = Bookmarket.doSubjectSearch(SUBJECTS.COOKING).get(0);
+        Book second = Bookmarket.doSubjectSearch(SUBJECTS.COOKING).get(1);
+        Stock firstStock = bookstores[0].getStock(first.getId());
+        Stock secondStock = bookstores[0].getStock(second.getId());
+        int firstQty = firstStock.getQty();
+        int secondQty = secondStock.getQty();
+        firstStock.setQty(1000);
+        secondStock.setQty(1000);
+        try {
+            Cart cart = Bookmarket.doCartDelta(0, cartId, new CartDelta()
+                    .add(first.getId(), 3)
+                    .add(first.getId(), 2)
+                    .set(second.getId(), 7)
+                    .remove(second.getId(), 4));
+            assertEquals(5, cart.getQty(first.getId()));
+            assertEquals(3, cart.getQty(second.getId()));
+
+            Bookmarket.doCartDelta(0, cartId, new CartDelta()
+                    .remove(first.getId(), 10)
+                    .set(second.getId(), 0));
+            assertTrue("Removing past zero should drop the lines", cart.getLines().isEmpty());
+            assertEquals(0, firstStock.getReserved());
+        } finally {
+            Bookmarket.doCartDelta(0, cartId, new CartDelta()
+                    .set(first.getId(), 0)
+                    .set(second.getId(), 0));
+            firstStock.setQty(firstQty);
+            secondStock.setQty(secondQty);
+        }
+    }
+
+    @Test
+    public void testUpdateStocksInBulk() {
+        List<Book> books = Bookmarket.doSubjectSearch(SUBJECTS.HISTORY);
+        Book first = books.get(0);
+        Book second = books.get(1);
+        int[] ids = {first.getId(), second.getId()};
+
+        assertEquals(2, Bookmarket.updateStocks(0, ids, new double[]{0.01, 0.02}, new int[]{500, 600}));
+        Stock stock = bookstores[0].getStock(first.getId());
+        assertEquals(0.01, stock.getCost(), 0);
+        assertEquals(500, stock.getQty());
+        assertEquals(600, bookstores[0].getStock(second.getId()).getQty());
+        assertSame("The price index should be re-sorted", stock, Bookmarket.getStocks(first.getId()).get(0));
+
+        Bookmarket.updateStocks(0, ids, new double[]{100000, 100000}, null);
+        List<Stock> offers = Bookmarket.getStocks(first.getId());
+        assertSame(stock, offers.get(offers.size() - 1));
+        assertEquals(500, stock.getQty());
+
+        try {
+            Bookmarket.updateStocks(0, new int[]{second.getId(), -1}, new double[]{1, 1}, null);
+            fail("An incorrect book ID should fail the batch");
+        } catch (RuntimeException expected) {
+        }
+        assertEquals("Nothing should change on a failed batch",
+                100000, bookstores[0].getStock(second.getId()).getCost(), 0);
+
+        try {
+            Bookmarket.updateStocks(0, ids, new double[]{1, -1}, null);
+            fail("A negative cost should fail the batch");
+        } catch (RuntimeException expected) {
+        }
+        try {
+            Bookmarket.updateStocks(0, ids, new double[]{1, 1}, new int[]{1, -1});
+            fail("A negative quantity should fail the batch");
+        } catch (RuntimeException expected) {
+        }
+        assertEquals(100000, stock.getCost(), 0);
+        assertEquals(500, stock.getQty());
+        offers = Bookmarket.getStocks(first.getId());
+        assertSame(stock, offers.get(offers.size() - 1));
+    }
+
+    @Test
+    public void testGetOrdersPagination() {
+        Customer customer = Bookstore.getCustomer(1)
+                .orElseThrow(() -> new RuntimeException("Customer ID not found"));
+        int count = Bookmarket.getOrderCount(customer.getId());
+        assertTrue("Customer should have orders", count > 0);
+
+        List<Order> history = new ArrayList<>();
+        for (int cursor = 0; cursor < count; cursor += 3) {
+            List<Order> page = Bookmarket.getOrders(customer.getId(), cursor, 3);
+            assertTrue("Pages should not exceed the page size", page.size() <= 3);
+            history.addAll(page);
+        }
+
+        assertEquals("Pages should cover the whole history", count, history.size());
+        assertTrue("Every order should belong to the customer",
+                history.stream().allMatch(order -> order.getCustomer().equals(customer)));
+        assertEquals("Last order should be the most recent one",
+                customer.getMostRecentOrder(), history.get(count - 1));
+        assertTrue("Cursor past the end should return an empty page",
+                Bookmarket.getOrders(customer.getId(), count, 3).isEmpty());
+    }
+
+    @Test
+    public void testGetOrderByGlobalId() {
+        Set<Integer> ids = new HashSet<>();
+        for (Bookstore store : bookstores) {
+            List<Order> orders = store.getOrdersById();
+            for (int slot = 0; slot < orders.size(); slot += 97) {
+                Order order = orders.get(slot);
+                assertTrue("Order IDs should be unique across stores", ids.add(order.getId()));
+                assertSame(order, Bookmarket.getOrder(order.getId()).get());
+            }
+        }
+        assertFalse(Bookmarket.getOrder(Integer.MAX_VALUE).isPresent());
+    }
+
     @Test
     public void testGetBook() {
         Book randomBook = Bookmarket.getABookAnyBook();
@@ -35,6 +35,29 @@ public class BookstoreTest {
         instance.populateInstanceBookstore(orders, stocks, evaluations, rand, now);
     }
 
+    @Test
+    public void testAttachingIndexDetachesPreviousOne() {
+        int[] stale = new int[1];
+        StockIndex previous = new StockIndex() {
+            @Override
+            public synchronized void costChanged(Stock stock, double previousCost) {
+                stale[0]++;
+                super.costChanged(stock, previousCost);
+            }
+        };
+        StockIndex current = new StockIndex();
+        instance.attachStockIndex(previous);
+        instance.attachStockIndex(current);
+
+        Book book = Bookstore.getBooksBySubject(SUBJECTS.COOKING).get(0);
+        Stock stock = instance.getStock(book.getId());
+        double cost = stock.getCost();
+        stock.setCost(cost + 1);
+        stock.setCost(cost);
+        assertEquals(0, stale[0]);
+        assertSame(stock, current.getCheapest(book.getId()).get());
+    }
+
     /**
      * Test of getBestSellers method, of class Bookstore.
      */
@@ -78,6 +101,29 @@ public class BookstoreTest {
         assertEquals(baselineCount2 + qty2, newCount2);
     }
 
+    @Test
+    public void testCheckoutRestocksWithoutWorker() {
+        Book book = Bookstore.getBooksBySubject(SUBJECTS.HISTORY).get(0);
+        Stock stock = instance.getStock(book.getId());
+        int previous = stock.getQty();
+        stock.setQty(RestockQueue.DEFAULT_REORDER_POINT + 2);
+        try {
+            Customer customer = Bookstore.getCustomer(1).get();
+            Cart cart = instance.createCart(System.currentTimeMillis());
+            cart.increaseLine(stock, 5);
+            instance.confirmBuy(customer.getId(), cart.getId(), "Test comment",
+                    CreditCards.VISA, new long[]{1111, 2222, 3333, 4444},
+                    "Test Customer", new Date(),
+                    ShipTypes.AIR, new Date(), -1,
+                    System.currentTimeMillis(), StatusTypes.SHIPPED);
+            assertEquals(RestockQueue.DEFAULT_REORDER_POINT - 3
+                    + RestockQueue.DEFAULT_REORDER_QTY, stock.getQty());
+            assertEquals(0, instance.getPendingRestockCount());
+        } finally {
+            stock.setQty(previous);
+        }
+    }
+
     /**
      * Test of isPopulated method, of class Bookstore.
      */
@@ -130,6 +176,13 @@ public class BookstoreTest {
         assertEquals(username, result.getUname());
     }
 
+    @Test
+    public void testGetCustomer_UnknownUsername() {
+        assertFalse(Bookstore.getCustomer("BAOG").isPresent());
+        assertFalse(Bookstore.getCustomer("NGNGNGNGNGNGNGNGNG").isPresent());
+        assertFalse(Bookstore.getCustomer("nobody").isPresent());
+    }
+
     /**
      * Test of createCustomer method, of class Bookstore.
      */
@@ -173,6 +226,12 @@ public class BookstoreTest {
         int cId = 0;
         long now = 0L;
         Bookstore.refreshCustomerSession(cId, now);
+        assertEquals(now + SessionTable.DEFAULT_TTL, Bookstore.getSessionExpiry(cId));
+        assertTrue(Bookstore.isSessionValid(cId, now));
+        assertFalse(Bookstore.isSessionValid(cId, now + SessionTable.DEFAULT_TTL));
+        Customer customer = Bookstore.getCustomer(cId).get();
+        assertEquals(now, customer.getLogin().getTime());
+        assertEquals(now + SessionTable.DEFAULT_TTL, customer.getExpiration().getTime());
     }
 
     /**
@@ -296,7 +355,57 @@ public class BookstoreTest {
         recommendedBooks.clear();
     }
 
+    /**
+     * Test of getBestSellers method by sales cube slice, of class Bookstore.
+     */
+    @Test
+    public void testGetBestSellersBySlice() {
+        for (SUBJECTS subject : SUBJECTS.values()) {
+            assertEquals(instance.getBestSellers(subject),
+                    instance.getBestSellers(subject, SalesCube.ALL, SalesCube.ALL));
+        }
+
+        Map<Book, Integer> all = instance.getBestSellers(null, SalesCube.ALL, SalesCube.ALL);
+        int byBand = 0;
+        for (int band = 0; band <= 100 / SalesCube.DISCOUNT_BAND_WIDTH; band++) {
+            byBand += instance.getBestSellers(null, SalesCube.ALL, band)
+                    .values().stream().mapToInt(Integer::intValue).sum();
+        }
+        assertEquals(all.values().stream().mapToInt(Integer::intValue).sum(), byBand);
+    }
 
-
+    @Test
+    public void testGetOrdersByDateRange() {
+        long now = System.currentTimeMillis();
+        Date from = new Date(now - 58 * OrderTimeIndex.DAY - 3600000L);
+        Date to = new Date(now - 55 * OrderTimeIndex.DAY);
+
+        int count = 0;
+        double total = 0;
+        long units = 0;
+        for (Order order : instance.getOrdersById()) {
+            if (!order.getDate().before(from) && order.getDate().before(to)) {
+                count++;
+                total += order.getTotal();
+                units += order.getLines().stream().mapToInt(OrderLine::getQty).sum();
+            }
+        }
+        assertTrue("Range should hold populated orders", count > 0);
+
+        List<Order> orders = instance.getOrders(from, to);
+        assertEquals(count, orders.size());
+        assertTrue(orders.stream().allMatch(
+                order -> !order.getDate().before(from) && order.getDate().before(to)));
+
+        OrderTotals totals = instance.getOrderTotals(from, to);
+        assertEquals(count, totals.getCount());
+        assertEquals(total, totals.getTotal(), 0.01);
+        assertEquals(units, totals.getUnits());
+
+        OrderTotals byDay = instance.getOrderTotalsByDay(from, to).values().stream()
+                .reduce(OrderTotals.EMPTY, OrderTotals::plus);
+        assertEquals(count, byDay.getCount());
+        assertEquals(units, byDay.getUnits());
+    }
 
 }
@@ -0,0 +1,184 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import dominio.Cart;
+import dominio.Customer;
+import dominio.Stock;
+
+public class CartTableTest {
+
+    private static final long TTL = 60000;
+
+    @Test
+    public void testIdleCartsExpire() {
+        CartTable table = new CartTable(TTL);
+        Cart idle = table.create(0);
+        Cart active = table.create(0);
+        assertEquals(2, table.getLiveCount());
+
+        active.setTime(new Date(TTL / 2));
+        assertEquals(0, table.expire(TTL / 2));
+        assertEquals(1, table.expire(TTL));
+
+        assertNull(table.get(idle.getId()));
+        assertSame(active, table.get(active.getId()));
+        assertEquals(1, table.getLiveCount());
+
+        assertEquals(1, table.expire(TTL + TTL / 2));
+        assertEquals(0, table.getLiveCount());
+        assertEquals(2, table.getExpiredCount());
+        assertTrue(table.getExpiryRate() > 0);
+    }
+
+    @Test
+    public void testCartTouchedWhileSweepWaitsIsKept() throws Exception {
+        CartTable table = new CartTable(TTL);
+        Cart cart = table.create(0);
+        Thread sweeper = new Thread(() -> table.expire(TTL));
+        synchronized (cart) {
+            sweeper.start();
+            // Let the sweep block on the cart before it is touched.
+            while (sweeper.getState() != Thread.State.BLOCKED && sweeper.isAlive()) {
+                Thread.sleep(1);
+            }
+            cart.setTime(new Date(TTL));
+        }
+        sweeper.join();
+        assertSame(cart, table.get(cart.getId()));
+        assertEquals(1, table.getLiveCount());
+    }
+
+    @Test
+    public void testExpiredSlotIsReusedWithNewGeneration() {
+        CartTable table = new CartTable(TTL);
+        Cart first = table.create(0);
+        table.expire(TTL);
+
+        Cart second = table.create(TTL);
+        assertNotEquals(first.getId(), second.getId());
+        assertNull("Stale ID should not resolve to the new cart", table.get(first.getId()));
+        assertSame(second, table.get(second.getId()));
+    }
+
+    @Test
+    public void testExhaustedSlotIsRetired() {
+        CartTable table = new CartTable(TTL);
+        Set<Integer> ids = new HashSet<>();
+        int[] issued = new int[600];
+        for (int i = 0; i < issued.length; i++) {
+            issued[i] = table.create(i * TTL).getId();
+            assertTrue("Cart IDs must never be reused", ids.add(issued[i]));
+            table.expire((i + 1) * TTL);
+        }
+        Cart live = table.create(issued.length * TTL);
+        for (int id : issued) {
+            assertNull(table.get(id));
+        }
+        assertSame(live, table.get(live.getId()));
+    }
+
+    @Test
+    public void testLongPauseExpiresEverything() {
+        CartTable table = new CartTable(TTL);
+        for (int i = 0; i < 1000; i++) {
+            table.create(i);
+        }
+        assertEquals(1000, table.expire(1000 * TTL));
+        assertEquals(0, table.getLiveCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownCartShouldFail() {
+        new Bookstore(0).getCart(12345);
+    }
+
+    private static Stock[] stocks(int count) {
+        Stock[] stocks = new Stock[count];
+        for (int i = 0; i < count; i++) {
+            stocks[i] = StockFixtures.stock(i, 10.0 + i, 50);
+        }
+        return stocks;
+    }
+
+    @Test
+    public void testIdleCartsArePackedAndUnpacked() {
+        Stock[] stocks = stocks(3);
+        CartTable table = new CartTable(TTL, id -> stocks[id]);
+        table.setIdleTime(TTL / 4);
+        Cart cart = table.create(0);
+        cart.increaseLine(stocks[0], 2);
+        cart.increaseLine(stocks[2], 5);
+        Date now = new Date();
+        Customer customer = new Customer(0, "u", "p", "f", "l", "1", "e@e.com",
+                now, now, now, now, 0, 0, 0, now, "", stocks[0].getAddress());
+        double total = cart.quote(customer).getTotal();
+        long fingerprint = cart.getFingerprint();
+
+        assertEquals(0, table.pack(TTL / 8));
+        assertEquals(1, table.pack(TTL / 4));
+        assertEquals(1, table.getPackedCount());
+        assertTrue(table.getPackedBytes() > 0);
+        assertFalse(table.isResident(cart));
+        assertEquals("Holds stay while packed", 5, stocks[2].getReserved());
+
+        Cart unpacked = table.get(cart.getId());
+        assertNotSame(cart, unpacked);
+        assertTrue(table.isResident(unpacked));
+        assertEquals(0, table.getPackedCount());
+        assertEquals(0, table.getPackedBytes());
+        assertEquals(7, unpacked.getItemCount());
+        assertEquals(2, unpacked.getQty(0));
+        assertEquals(5, unpacked.getQty(2));
+        assertEquals(fingerprint, unpacked.getFingerprint());
+        assertEquals(cart.getTime(), unpacked.getTime());
+        assertEquals(total, unpacked.quote(customer).getTotal(), 1e-9);
+
+        unpacked.changeLine(stocks[2], 1);
+        assertEquals(1, stocks[2].getReserved());
+    }
+
+    @Test
+    public void testPackedCartsExpireAndReleaseStock() {
+        Stock[] stocks = stocks(1);
+        CartTable table = new CartTable(TTL, id -> stocks[id]);
+        table.setIdleTime(TTL / 4);
+        Cart cart = table.create(0);
+        cart.increaseLine(stocks[0], 3);
+        table.pack(TTL / 2);
+
+        assertEquals(1, table.expire(TTL));
+        assertEquals(0, stocks[0].getReserved());
+        assertEquals(0, table.getPackedCount());
+        assertNull(table.get(cart.getId()));
+    }
+
+    @Test
+    public void testPackedBlocksAreReused() {
+        Stock[] stocks = stocks(1);
+        CartTable table = new CartTable(TTL, id -> stocks[id]);
+        table.setIdleTime(1);
+        for (int i = 0; i < 100; i++) {
+            table.create(0).increaseLine(stocks[0], 0 == i % 2 ? 1 : 0);
+        }
+        assertEquals(100, table.pack(1));
+        long bytes = table.getPackedBytes();
+        assertTrue("Packed carts should be small: " + bytes, bytes <= 100 * 64);
+        for (int id = 0; id < 100; id++) {
+            table.get(id);
+        }
+        assertEquals(100, table.pack(1));
+        assertEquals(bytes, table.getPackedBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPackingNeedsStockResolver() {
+        new CartTable(TTL).setIdleTime(1);
+    }
+}
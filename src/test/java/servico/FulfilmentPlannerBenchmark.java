@@ -0,0 +1,72 @@
+package servico;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.Country;
+import dominio.SUBJECTS;
+import dominio.Stock;
+
+/**
+ * Measures the latency of {@link FulfilmentPlanner} on 20 stores and carts
+ * of 50 lines. Not a unit test; run its {@code main}.
+ */
+public class FulfilmentPlannerBenchmark {
+
+    private static final int STORES = 20;
+    private static final int BOOKS = 2000;
+    private static final int LINES = 50;
+    private static final int RUNS = 2000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        Date now = new Date();
+        Address address = new Address(0, "Rua A", "", "Cidade", "SP", "123",
+                new Country(0, "Brasil", "BRL", 1));
+        Author author = new Author("John", "D", "Doe", now, "Bio");
+        StockIndex index = new StockIndex();
+        for (int b = 0; b < BOOKS; b++) {
+            Book book = new Book(b, "Book " + b, now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i",
+                    10.0, now, "" + b, 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, author);
+            for (int s = 0; s < STORES; s++) {
+                if (random.nextInt(4) != 0) {
+                    index.add(new Stock(s, address, book, 10 + random.nextInt(4000) / 100.0,
+                            random.nextInt(6)));
+                }
+            }
+        }
+        FulfilmentPlanner planner = new FulfilmentPlanner(index,
+                store -> 4 + store % 5, FulfilmentPlanner.DEFAULT_BUDGET_NANOS);
+
+        long[] nanos = new long[RUNS];
+        int stores = 0;
+        int incomplete = 0;
+        for (int run = -RUNS / 4; run < RUNS; run++) {
+            int[] bookIds = new int[LINES];
+            int[] qtys = new int[LINES];
+            for (int l = 0; l < LINES; l++) {
+                bookIds[l] = random.nextInt(BOOKS);
+                qtys[l] = 1 + random.nextInt(3);
+            }
+            long start = System.nanoTime();
+            FulfilmentPlan plan = planner.plan(bookIds, qtys);
+            long elapsed = System.nanoTime() - start;
+            if (run >= 0) {
+                nanos[run] = elapsed;
+                stores += plan.getStoreIds().size();
+                incomplete += plan.isComplete() ? 0 : 1;
+            }
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%d stores, %d-line carts, %d plans%n", STORES, LINES, RUNS);
+        System.out.printf("median %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                nanos[RUNS / 2] / 1e6, nanos[RUNS * 99 / 100] / 1e6, nanos[RUNS - 1] / 1e6);
+        System.out.printf("%.1f stores per plan, %d plans cut by the budget%n",
+                stores / (double) RUNS, incomplete);
+    }
+}
@@ -0,0 +1,121 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.Book;
+import dominio.Cart;
+import dominio.Stock;
+
+public class FulfilmentPlannerTest {
+
+    private StockIndex index;
+    private Book[] books;
+
+    @Before
+    public void setUp() {
+        index = new StockIndex();
+        books = new Book[3];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = StockFixtures.book(i);
+        }
+    }
+
+    private Stock offer(int store, int book, double cost, int qty) {
+        Stock stock = StockFixtures.stock(store, books[book], cost, qty);
+        index.add(stock);
+        return stock;
+    }
+
+    private FulfilmentPlanner planner(double parcel) {
+        return new FulfilmentPlanner(index, store -> parcel, FulfilmentPlanner.DEFAULT_BUDGET_NANOS * 100);
+    }
+
+    @Test
+    public void testSmallSavingsAreConsolidatedIntoOneParcel() {
+        offer(0, 0, 10, 5);
+        offer(0, 1, 10, 5);
+        offer(1, 1, 9, 5);
+
+        FulfilmentPlan plan = planner(5).plan(new int[]{0, 1}, new int[]{1, 1});
+        assertEquals(1, plan.getStoreIds().size());
+        assertEquals(2, plan.getShipment(0).size());
+        assertEquals(25, plan.getTotalCost(), 1e-9);
+        assertTrue(plan.isComplete());
+
+        FulfilmentPlan cheapParcels = planner(0.5).plan(new int[]{0, 1}, new int[]{1, 1});
+        assertEquals(2, cheapParcels.getStoreIds().size());
+        assertEquals(19 + 1, cheapParcels.getTotalCost(), 1e-9);
+    }
+
+    @Test
+    public void testShortStoreIsCompletedElsewhere() {
+        offer(0, 0, 10, 2);
+        offer(1, 0, 12, 10);
+        offer(2, 0, 11, 1);
+
+        FulfilmentPlan plan = planner(1).plan(new int[]{0, 0}, new int[]{3, 2});
+        int units = 0;
+        for (int store : plan.getStoreIds()) {
+            for (FulfilmentPlan.Allocation allocation : plan.getShipment(store)) {
+                units += allocation.getQty();
+                assertTrue(allocation.getQty() <= allocation.getStock().getAvailable());
+            }
+        }
+        assertEquals(5, units);
+        // 2 at 10 and 3 at 12 in two parcels beats adding the third store.
+        assertEquals(20 + 36 + 2, plan.getTotalCost(), 1e-9);
+        assertTrue(plan.getUnfilled().isEmpty());
+    }
+
+    @Test
+    public void testUnavailableUnitsAreReported() {
+        offer(0, 0, 10, 2);
+        FulfilmentPlan plan = planner(1).plan(new int[]{0, 2}, new int[]{5, 1});
+        assertEquals(Integer.valueOf(3), plan.getUnfilled().get(0));
+        assertEquals(Integer.valueOf(1), plan.getUnfilled().get(2));
+        assertEquals(20 + 1, plan.getTotalCost(), 1e-9);
+    }
+
+    @Test
+    public void testCartHoldsCountAsAvailable() {
+        Stock held = offer(0, 0, 10, 3);
+        offer(1, 0, 20, 3);
+        Cart cart = new Cart(0, new Date());
+        cart.increaseLine(held, 3);
+        assertEquals(0, held.getAvailable());
+
+        FulfilmentPlan plan = planner(1).plan(cart);
+        assertEquals(1, plan.getStoreIds().size());
+        assertEquals(3, plan.getShipment(0).get(0).getQty());
+    }
+
+    @Test
+    public void testZeroBudgetStillReturnsAPlan() {
+        offer(0, 0, 10, 5);
+        offer(1, 1, 10, 5);
+        FulfilmentPlan plan = new FulfilmentPlanner(index, store -> 1, 0)
+                .plan(new int[]{0, 1}, new int[]{1, 1});
+        assertEquals(22, plan.getTotalCost(), 1e-9);
+    }
+
+    @Test
+    public void testAllocationsKeepThePlannedCost() {
+        Stock stock = offer(0, 0, 10, 5);
+        offer(0, 1, 4, 5);
+        FulfilmentPlan plan = planner(1).plan(new int[]{0, 1}, new int[]{2, 3});
+        stock.setCost(99);
+
+        double sum = 0;
+        for (FulfilmentPlan.Allocation allocation : plan.getShipment(0)) {
+            sum += allocation.getCost();
+        }
+        assertEquals(20 + 12, plan.getGoodsCost(), 1e-9);
+        assertEquals(plan.getGoodsCost(), sum, 1e-9);
+        assertEquals(10, plan.getShipment(0).get(0).getUnitCost(), 0);
+    }
+}
@@ -0,0 +1,146 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import dominio.Stock;
+
+public class InventoryFeedTest {
+
+    private static class Recorder implements InventoryFeed.Handler {
+
+        final List<String> events = new ArrayList<>();
+        long gapFrom = -1;
+        long gapTo = -1;
+
+        @Override
+        public void onChange(int bookId, byte field, double value, long sequence) {
+            events.add(sequence + ":" + bookId + ":" + field + ":" + value);
+        }
+
+        @Override
+        public void onGap(long from, long to) {
+            gapFrom = from;
+            gapTo = to;
+        }
+    }
+
+    private static Stock stock(int bookId) {
+        return StockFixtures.stock(bookId, 10.0, 5);
+    }
+
+    @Test
+    public void testStockChangesAreFed() {
+        InventoryFeed feed = new InventoryFeed(16);
+        InventoryFeed.Subscriber subscriber = feed.subscribe();
+        Stock stock = stock(4);
+        stock.addListener(feed);
+        stock.addListener(feed);
+
+        stock.setCost(12.5);
+        stock.addQty(3);
+        assertTrue(stock.reserve(2));
+        stock.commitReservation(2);
+        stock.setQty(6); // Unchanged, no event.
+        stock.setQty(9);
+
+        Recorder recorder = new Recorder();
+        assertEquals(4, subscriber.poll(recorder, 100));
+        assertEquals("0:4:0:12.5", recorder.events.get(0));
+        assertEquals("1:4:1:8.0", recorder.events.get(1));
+        assertEquals("2:4:1:6.0", recorder.events.get(2));
+        assertEquals("3:4:1:9.0", recorder.events.get(3));
+        assertEquals(0, subscriber.getLag());
+        assertEquals(0, subscriber.poll(recorder, 100));
+    }
+
+    @Test
+    public void testSubscribersReadAtTheirOwnPace() {
+        InventoryFeed feed = new InventoryFeed(16);
+        InventoryFeed.Subscriber fast = feed.subscribe();
+        InventoryFeed.Subscriber slow = feed.subscribe();
+        for (int i = 0; i < 5; i++) {
+            feed.publish(i, InventoryFeed.QTY, i);
+        }
+        assertEquals(5, fast.poll(new Recorder(), 10));
+        assertEquals(2, slow.poll(new Recorder(), 2));
+        assertEquals(3, slow.getLag());
+        assertEquals(3, slow.poll(new Recorder(), 10));
+    }
+
+    @Test
+    public void testSlowSubscriberDetectsGap() {
+        InventoryFeed feed = new InventoryFeed(8);
+        InventoryFeed.Subscriber subscriber = feed.subscribe();
+        for (int i = 0; i < 20; i++) {
+            feed.publish(i, InventoryFeed.COST, i);
+        }
+        Recorder recorder = new Recorder();
+        assertEquals(8, subscriber.poll(recorder, 100));
+        assertEquals(0, recorder.gapFrom);
+        assertEquals(11, recorder.gapTo);
+        assertEquals(12, subscriber.getMissedCount());
+        assertEquals("12:12:0:12.0", recorder.events.get(0));
+    }
+
+    @Test
+    public void testConcurrentReaderNeverSeesTornEvents() throws Exception {
+        InventoryFeed feed = new InventoryFeed(64);
+        int writers = 4;
+        int perWriter = 100000;
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    // The value and field are derived from the book ID, so a
+                    // torn event shows up as a mismatch.
+                    int bookId = writer * perWriter + i;
+                    feed.publish(bookId, (byte) (bookId & 1), bookId * 2.0);
+                }
+            }));
+        }
+        InventoryFeed.Subscriber subscriber = feed.subscribe();
+        AtomicLong torn = new AtomicLong();
+        AtomicLong read = new AtomicLong();
+        InventoryFeed.Handler checker = new InventoryFeed.Handler() {
+            long last = -1;
+
+            @Override
+            public void onChange(int bookId, byte field, double value, long sequence) {
+                if (value != bookId * 2.0 || field != (bookId & 1) || sequence <= last) {
+                    torn.incrementAndGet();
+                }
+                last = sequence;
+                read.incrementAndGet();
+            }
+        };
+        Thread reader = new Thread(() -> {
+            while (!done.get() || subscriber.getLag() > 0) {
+                subscriber.poll(checker, 32);
+            }
+        });
+        reader.start();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        reader.join(10000);
+
+        assertEquals(0, torn.get());
+        assertEquals((long) writers * perWriter, read.get() + subscriber.getMissedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePowerOfTwo() {
+        new InventoryFeed(12);
+    }
+}
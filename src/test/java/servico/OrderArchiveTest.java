@@ -0,0 +1,95 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dominio.Book;
+import dominio.Order;
+import dominio.OrderLine;
+import dominio.SUBJECTS;
+
+public class OrderArchiveTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    static Bookstore instance;
+
+    @BeforeClass
+    public static void setUpClass() {
+        long seed = 0;
+        long now = System.currentTimeMillis();
+        if (!(new Bookstore(0)).isPopulated()) {
+            Bookstore.populate(seed, now, 1000, 100, 1000, 100);
+        }
+        instance = new Bookstore(0);
+        instance.populateInstanceBookstore(200, 100, 100, new Random(seed), now);
+        while (instance.getOrderBacklog() > 0) {
+            instance.advanceOrders(100);
+        }
+    }
+
+    @Test
+    public void testArchivedOrdersDecodeToSameContent() throws Exception {
+        List<Order> before = new ArrayList<>(instance.getOrdersById());
+        Map<Book, Integer> bestSellers = instance.getBestSellers(SUBJECTS.ARTS);
+
+        OrderArchive archive = new OrderArchive(folder.newFile("orders-0.bin").toPath());
+        instance.setOrderArchive(archive);
+        assertEquals(before.size(), instance.archiveOrders(Long.MAX_VALUE));
+        assertEquals(before.size(), archive.getRecordCount());
+        assertEquals(0, instance.archiveOrders(Long.MAX_VALUE));
+
+        List<Order> after = instance.getOrdersById();
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            Order expected = before.get(i);
+            Order actual = after.get(i);
+            assertNotSame(expected, actual);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getCustomer(), actual.getCustomer());
+            assertEquals(expected.getDate(), actual.getDate());
+            assertEquals(expected.getTotal(), actual.getTotal(), 0.0);
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getShippingAddress(), actual.getShippingAddress());
+            assertEquals(expected.getCC().getAuthId(), actual.getCC().getAuthId());
+            assertEquals(expected.getLines().size(), actual.getLines().size());
+            for (int j = 0; j < expected.getLines().size(); j++) {
+                OrderLine line = expected.getLines().get(j);
+                assertEquals(line.getBook(), actual.getLines().get(j).getBook());
+                assertEquals(line.getQty(), actual.getLines().get(j).getQty());
+            }
+        }
+        assertEquals(bestSellers, instance.getBestSellers(SUBJECTS.ARTS));
+        archive.close();
+    }
+
+    @Test
+    public void testFileInUseIsNotReopened() throws Exception {
+        Path file = folder.newFile("orders-1.bin").toPath();
+        OrderArchive archive = new OrderArchive(file);
+        try {
+            new OrderArchive(file.getParent().resolve("./orders-1.bin"));
+            fail("An archive file in use should not be truncated");
+        } catch (IllegalStateException expected) {
+        } finally {
+            archive.close();
+        }
+        new OrderArchive(file).close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testArchiveWithoutArchiveShouldFail() {
+        new Bookstore(1).archiveOrders(Long.MAX_VALUE);
+    }
+}
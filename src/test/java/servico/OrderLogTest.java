@@ -0,0 +1,91 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.CCTransaction;
+import dominio.Cart;
+import dominio.Country;
+import dominio.CreditCards;
+import dominio.Customer;
+import dominio.Order;
+import dominio.SUBJECTS;
+import dominio.ShipTypes;
+import dominio.StatusTypes;
+import dominio.Stock;
+
+public class OrderLogTest {
+
+    private Customer customer;
+    private Address address;
+    private Cart cart;
+    private CCTransaction cc;
+    private Date now;
+
+    @Before
+    public void setUp() {
+        now = new Date();
+        Country country = new Country(1, "Brasil", "BRL", 1.0);
+        address = new Address(1, "Rua A", "", "Cidade", "SP", "123", country);
+        Author author = new Author("John", "D", "Doe", now, "Bio");
+        Book book = new Book(0, "Art", now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i",
+                10.0, now, "1", 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, author);
+        customer = new Customer(1, "user", "pass", "first", "last", "11-0000-0000", "e@e.com",
+                now, now, now, now, 0.0, 0.0, 0.0, now, "", address);
+        cart = new Cart(0, now);
+        cart.changeLine(new Stock(0, address, book, 10.0, 100), 1);
+        cc = new CCTransaction(CreditCards.VISA, new long[]{1, 2, 3, 4},
+                "Owner", now, "AUTH", 10.0, now, country);
+    }
+
+    private Order order(int id) {
+        return new Order(id, customer, now, cart, "", ShipTypes.AIR, now,
+                StatusTypes.PENDING, address, address, cc);
+    }
+
+    @Test
+    public void testAppendAcrossChunks() {
+        OrderLog log = new OrderLog();
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, log.append(order(i)));
+        }
+        assertEquals(3000, log.size());
+        assertEquals(0, log.get(0).getId());
+        assertEquals(1024, log.get(1024).getId());
+        assertEquals(2999, log.get(2999).getId());
+    }
+
+    @Test
+    public void testNewestFirstCoversPublishedPrefix() {
+        OrderLog log = new OrderLog();
+        for (int i = 0; i < 5; i++) {
+            log.append(order(i));
+        }
+        Iterable<Order> newestFirst = log.newestFirst();
+        log.append(order(5));
+
+        int expected = 4;
+        for (Order order : newestFirst) {
+            assertEquals(expected--, order.getId());
+        }
+        assertEquals(-1, expected);
+        Iterator<Order> fresh = log.newestFirst().iterator();
+        assertEquals(5, fresh.next().getId());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetBeyondLength() {
+        OrderLog log = new OrderLog();
+        log.append(order(0));
+        log.get(1);
+    }
+}
@@ -0,0 +1,72 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import dominio.Order;
+
+public class OrderStatusPipelineTest {
+
+    static Bookstore instance;
+
+    @BeforeClass
+    public static void setUpClass() {
+        long seed = 0;
+        long now = System.currentTimeMillis();
+        if (!(new Bookstore(0)).isPopulated()) {
+            Bookstore.populate(seed, now, 1000, 100, 1000, 100);
+        }
+        instance = new Bookstore(0);
+        instance.populateInstanceBookstore(200, 100, 100, new Random(seed), now);
+    }
+
+    @Test
+    public void testPipelineDrainsBacklog() throws InterruptedException {
+        OrderStatusPipeline pipeline = new OrderStatusPipeline(Collections.singletonList(instance), 50);
+        int backlog = pipeline.getBacklog();
+        assertTrue("Populated store should have open orders", backlog > 0);
+
+        pipeline.start(1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.getBacklog() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        pipeline.stop();
+
+        assertEquals(0, pipeline.getBacklog());
+        assertTrue(pipeline.getTransitionCount() >= backlog);
+        assertTrue(pipeline.getBatchCount() > 0);
+        for (Order order : instance.getOrdersById()) {
+            assertTrue("Every order should be finished", order.isFinished());
+        }
+    }
+
+    @Test
+    public void testFailingStoreDoesNotStopThePipeline() throws InterruptedException {
+        Bookstore broken = new Bookstore(1) {
+            @Override
+            public int advanceOrders(int batchSize) {
+                throw new IllegalStateException("broken store");
+            }
+        };
+        OrderStatusPipeline pipeline = new OrderStatusPipeline(Arrays.asList(broken, instance), 0);
+        assertEquals(0, pipeline.runOnce());
+        assertEquals(1, pipeline.getFailureCount());
+        assertEquals("broken store", pipeline.getLastFailure().getMessage());
+
+        pipeline.start(1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.getBatchCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        pipeline.stop();
+        assertTrue("The schedule should survive failures", pipeline.getBatchCount() >= 5);
+        assertTrue(pipeline.getFailureCount() >= 5);
+    }
+}
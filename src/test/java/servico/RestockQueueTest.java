@@ -0,0 +1,127 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dominio.Stock;
+
+public class RestockQueueTest {
+
+    private static Stock stock(int bookId, int qty) {
+        return StockFixtures.stock(bookId, 10.0, qty);
+    }
+
+    @Test
+    public void testLowStockIsFiledOnceAndRestockedLater() {
+        RestockQueue queue = new RestockQueue();
+        Stock low = stock(1, 9);
+        assertFalse(queue.offer(stock(2, 10)));
+        assertTrue(queue.offer(low));
+        assertFalse("A pending entry is not filed twice", queue.offer(low));
+        assertEquals(1, queue.getPendingCount());
+        assertEquals(9, low.getQty());
+
+        assertEquals(1, queue.drain(10));
+        assertEquals(9 + RestockQueue.DEFAULT_REORDER_QTY, low.getQty());
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(1, queue.getRestockCount());
+        assertEquals(RestockQueue.DEFAULT_REORDER_QTY, queue.getRestockedUnits());
+        assertTrue(queue.getMaxTimeToRestock() >= queue.getAverageTimeToRestock());
+    }
+
+    @Test
+    public void testPerBookPolicy() {
+        RestockQueue queue = new RestockQueue();
+        queue.setPolicy(7, 50, 100);
+        Stock stock = stock(7, 40);
+        assertEquals(50, queue.getReorderPoint(7));
+        assertEquals(RestockQueue.DEFAULT_REORDER_POINT, queue.getReorderPoint(6));
+
+        assertTrue(queue.offer(stock));
+        queue.drain(1);
+        assertEquals(140, stock.getQty());
+    }
+
+    @Test
+    public void testRestockStillLowIsFiledAgain() {
+        RestockQueue queue = new RestockQueue();
+        queue.setPolicy(3, 100, 30);
+        Stock stock = stock(3, 0);
+        queue.offer(stock);
+        queue.drain(1);
+        assertEquals(30, stock.getQty());
+        assertEquals(1, queue.getPendingCount());
+    }
+
+    @Test
+    public void testBatchesKeepFilingOrderAcrossGrowth() {
+        RestockQueue queue = new RestockQueue();
+        Stock[] stocks = new Stock[200];
+        for (int i = 0; i < stocks.length; i++) {
+            stocks[i] = stock(i, 0);
+            assertTrue(queue.offer(stocks[i]));
+        }
+        assertEquals(50, queue.drain(50));
+        assertEquals(RestockQueue.DEFAULT_REORDER_QTY, stocks[49].getQty());
+        assertEquals(0, stocks[50].getQty());
+        assertEquals(150, queue.drain(1000));
+        assertTrue(Arrays.stream(stocks).allMatch(s -> s.getQty() > 0));
+    }
+
+    @Test
+    public void testDrainOfGivenEntriesSkipsOthers() {
+        RestockQueue queue = new RestockQueue();
+        Stock older = stock(1, 0);
+        Stock mine = stock(2, 0);
+        Stock newer = stock(3, 0);
+        queue.offer(older);
+        queue.offer(mine);
+        queue.offer(newer);
+
+        assertEquals(1, queue.drain(Arrays.asList(mine, stock(4, 0))));
+        assertEquals(RestockQueue.DEFAULT_REORDER_QTY, mine.getQty());
+        assertEquals(0, older.getQty());
+        assertEquals(2, queue.getPendingCount());
+        assertEquals(0, queue.drain(Arrays.asList(mine)));
+
+        assertEquals(2, queue.drain(10));
+        assertEquals(RestockQueue.DEFAULT_REORDER_QTY, older.getQty());
+        assertEquals(RestockQueue.DEFAULT_REORDER_QTY, newer.getQty());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void testRepeatedOutOfOrderDrains() {
+        RestockQueue queue = new RestockQueue();
+        queue.setPolicy(1, 1, 0);
+        queue.setPolicy(2, 1, 0);
+        Stock first = stock(1, 0);
+        Stock second = stock(2, 0);
+        for (int i = 0; i < 1000; i++) {
+            // Restocking nothing leaves both low, so each drain files them again.
+            queue.drain(Arrays.asList(second));
+            queue.drain(Arrays.asList(first));
+            queue.offer(first);
+            queue.offer(second);
+        }
+        assertEquals(2, queue.getPendingCount());
+        assertEquals(2, queue.drain(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBatchShouldFail() {
+        new RestockQueue().drain(-1);
+    }
+
+    @Test
+    public void testWorkerRestocksStores() {
+        Bookstore store = new Bookstore(99);
+        RestockWorker worker = new RestockWorker(Arrays.asList(store), 10);
+        assertEquals(0, worker.runOnce());
+        assertEquals(1, worker.getBatchCount());
+        assertEquals(0, worker.getPendingCount());
+    }
+}
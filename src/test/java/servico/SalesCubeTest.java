@@ -0,0 +1,89 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.CCTransaction;
+import dominio.Cart;
+import dominio.Country;
+import dominio.CreditCards;
+import dominio.Customer;
+import dominio.Order;
+import dominio.SUBJECTS;
+import dominio.ShipTypes;
+import dominio.StatusTypes;
+import dominio.Stock;
+
+public class SalesCubeTest {
+
+    private Date now;
+    private Book book;
+    private Address brazil;
+    private Address canada;
+    private Customer customer;
+
+    @Before
+    public void setUp() {
+        now = new Date();
+        brazil = new Address(1, "Rua A", "", "Cidade", "SP", "123", new Country(1, "Brasil", "BRL", 1.0));
+        canada = new Address(2, "Main St", "", "City", "ON", "456", new Country(2, "Canada", "CAD", 1.0));
+        Author author = new Author("John", "D", "Doe", now, "Bio");
+        book = new Book(3, "Art", now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i",
+                10.0, now, "1", 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, author);
+        customer = new Customer(1, "user", "pass", "first", "last", "11-0000-0000", "e@e.com",
+                now, now, now, now, 25.0, 0.0, 0.0, now, "", brazil);
+    }
+
+    private Order order(Address shipping, int qty) {
+        Cart cart = new Cart(0, now);
+        cart.changeLine(new Stock(0, brazil, book, 10.0, 100), qty);
+        CCTransaction cc = new CCTransaction(CreditCards.VISA, new long[]{1, 2, 3, 4},
+                "Owner", now, "AUTH", 10.0, now, shipping.getCountry());
+        return new Order(0, customer, now, cart, "", ShipTypes.AIR, now,
+                StatusTypes.SHIPPED, brazil, shipping, cc);
+    }
+
+    @Test
+    public void testDiscountBand() {
+        assertEquals(0, SalesCube.discountBand(0));
+        assertEquals(2, SalesCube.discountBand(25));
+        assertEquals(10, SalesCube.discountBand(100));
+    }
+
+    @Test
+    public void testSlices() {
+        SalesCube cube = new SalesCube();
+        cube.record(order(brazil, 2));
+        cube.record(order(canada, 3));
+
+        int band = SalesCube.discountBand(customer.getDiscount());
+        assertEquals(Integer.valueOf(2), cube.slice(SUBJECTS.ARTS, 1, band).get(book));
+        assertEquals(Integer.valueOf(3), cube.slice(SUBJECTS.ARTS, 2, SalesCube.ALL).get(book));
+        assertEquals(Integer.valueOf(5), cube.slice(null, SalesCube.ALL, SalesCube.ALL).get(book));
+        assertTrue(cube.slice(SUBJECTS.COOKING, SalesCube.ALL, SalesCube.ALL).isEmpty());
+        assertTrue(cube.slice(SUBJECTS.ARTS, SalesCube.ALL, band + 1).isEmpty());
+    }
+
+    @Test
+    public void testMerge() {
+        SalesCube first = new SalesCube();
+        first.record(order(brazil, 2));
+        SalesCube second = new SalesCube();
+        second.record(order(brazil, 4));
+
+        first.merge(second);
+
+        Map<Book, Integer> slice = first.slice(SUBJECTS.ARTS, 1, SalesCube.ALL);
+        assertEquals(Integer.valueOf(6), slice.get(book));
+        assertEquals(Integer.valueOf(4), second.slice(SUBJECTS.ARTS, 1, SalesCube.ALL).get(book));
+    }
+}
@@ -0,0 +1,90 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SessionTableTest {
+
+    private static final long TTL = 1024000;
+
+    @Test
+    public void testSessionsExpireAfterTtl() {
+        SessionTable table = new SessionTable(TTL);
+        table.refresh(3, 0);
+        table.refresh(7, TTL / 2);
+        assertEquals(2, table.getActiveCount());
+        assertTrue(table.isValid(3, TTL - 1));
+        assertFalse(table.isValid(3, TTL));
+        assertFalse(table.isValid(5, 0));
+
+        assertEquals(0, table.expire(TTL - 1));
+        assertEquals(1, table.expire(TTL));
+        assertEquals(Long.MIN_VALUE, table.getExpiry(3));
+        assertEquals(TTL / 2, table.getLogin(7));
+        assertEquals(1, table.getActiveCount());
+
+        assertEquals(1, table.expire(TTL + TTL / 2));
+        assertEquals(0, table.getActiveCount());
+        assertEquals(2, table.getExpiredCount());
+    }
+
+    @Test
+    public void testRefreshPostponesExpiry() {
+        SessionTable table = new SessionTable(TTL);
+        table.refresh(0, 0);
+        for (long now = 0; now < 10 * TTL; now += TTL / 3) {
+            table.refresh(0, now);
+            assertEquals(0, table.expire(now));
+        }
+        assertEquals(1, table.getActiveCount());
+        assertEquals(1, table.expire(20 * TTL));
+    }
+
+    @Test
+    public void testCascadedSessionsExpireOnTheirTick() {
+        // 1 ms ticks: sessions of every level of the wheel.
+        SessionTable table = new SessionTable(1024);
+        int count = 5000;
+        for (int id = 0; id < count; id++) {
+            table.refresh(id, id * 60L - 1024);
+        }
+        long swept = 0;
+        for (long now = 0; now <= count * 60L; now += 7) {
+            swept += table.expire(now);
+            assertEquals(count - swept, table.getActiveCount());
+            for (int id = 0; id < count; id += 97) {
+                assertEquals(table.isValid(id, now), table.getExpiry(id) != Long.MIN_VALUE);
+            }
+        }
+        assertEquals(count, swept);
+    }
+
+    @Test
+    public void testSessionDueOnLastTickOfBlockIsNotDelayed() {
+        // 1 ms ticks: session 0 is due on tick 1087, the last of its block.
+        SessionTable table = new SessionTable(1024);
+        table.refresh(1, 0);
+        table.refresh(0, 63);
+        assertEquals(1, table.expire(1086));
+        assertTrue(table.isValid(0, 1086));
+        assertEquals(1, table.expire(1087));
+        assertEquals(0, table.getActiveCount());
+        assertFalse(table.isValid(0, 1100));
+    }
+
+    @Test
+    public void testLongPauseExpiresEverything() {
+        SessionTable table = new SessionTable(TTL);
+        for (int i = 0; i < 1000; i++) {
+            table.refresh(i, i);
+        }
+        assertEquals(1000, table.expire(1000 * TTL));
+        assertEquals(0, table.getActiveCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCustomerShouldFail() {
+        new SessionTable().refresh(-1, 0);
+    }
+}
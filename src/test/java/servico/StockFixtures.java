@@ -0,0 +1,57 @@
+package servico;
+
+import java.util.Date;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.Country;
+import dominio.SUBJECTS;
+import dominio.Stock;
+
+/**
+ * Books and stock entries for the tests of the stock services, built
+ * without populating a {@link Bookstore}.
+ */
+final class StockFixtures {
+
+    static final Address ADDRESS = new Address(0, "Rua A", "", "Cidade", "SP", "123",
+            new Country(0, "Brasil", "BRL", 1));
+
+    private static final Date NOW = new Date();
+    private static final Author AUTHOR = new Author("John", "D", "Doe", NOW, "Bio");
+
+    private StockFixtures() {
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @return A new arts book with that ID.
+     */
+    static Book book(int bookId) {
+        return new Book(bookId, "Book " + bookId, NOW, "Pub", SUBJECTS.ARTS, "Desc", "t", "i",
+                10.0, NOW, "" + bookId, 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, AUTHOR);
+    }
+
+    /**
+     * @param storeId The bookstore ID.
+     * @param book The book.
+     * @param cost The unit cost.
+     * @param qty The quantity on hand.
+     * @return A new stock entry of the book at the store.
+     */
+    static Stock stock(int storeId, Book book, double cost, int qty) {
+        return new Stock(storeId, ADDRESS, book, cost, qty);
+    }
+
+    /**
+     * @param bookId The book ID.
+     * @param cost The unit cost.
+     * @param qty The quantity on hand.
+     * @return A new stock entry of store 0 for a new book with that ID.
+     */
+    static Stock stock(int bookId, double cost, int qty) {
+        return stock(0, book(bookId), cost, qty);
+    }
+}
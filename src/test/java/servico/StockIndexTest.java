@@ -0,0 +1,78 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.Country;
+import dominio.SUBJECTS;
+import dominio.Stock;
+
+public class StockIndexTest {
+
+    private StockIndex index;
+    private Book book;
+    private Address address;
+
+    @Before
+    public void setUp() {
+        Date now = new Date();
+        Country country = new Country(1, "Brasil", "BRL", 1.0);
+        address = new Address(1, "Rua A", "", "Cidade", "SP", "123", country);
+        Author author = new Author("John", "D", "Doe", now, "Bio");
+        book = new Book(7, "Java", now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i",
+                100.0, now, "1", 100, BACKINGS.PAPERBACK, new int[]{1, 1, 1}, 1.0, author);
+        index = new StockIndex();
+    }
+
+    @Test
+    public void testStocksAreOrderedByCost() {
+        index.add(new Stock(0, address, book, 30.0, 1));
+        index.add(new Stock(1, address, book, 10.0, 1));
+        index.add(new Stock(2, address, book, 20.0, 1));
+
+        List<Stock> stocks = index.getStocks(book.getId());
+        assertEquals(3, stocks.size());
+        assertEquals(1, stocks.get(0).getIdBookstore());
+        assertEquals(2, stocks.get(1).getIdBookstore());
+        assertEquals(0, stocks.get(2).getIdBookstore());
+        assertEquals(1, index.getCheapest(book.getId()).get().getIdBookstore());
+    }
+
+    @Test
+    public void testCostChangeReordersEntries() {
+        Stock first = new Stock(0, address, book, 10.0, 1);
+        Stock second = new Stock(1, address, book, 20.0, 1);
+        index.add(first);
+        index.add(second);
+
+        first.setCost(50.0);
+
+        assertSame(second, index.getCheapest(book.getId()).get());
+        assertSame(first, index.getStocks(book.getId()).get(1));
+    }
+
+    @Test
+    public void testAddReplacesEntryOfSameStore() {
+        index.add(new Stock(0, address, book, 10.0, 1));
+        Stock replacement = new Stock(0, address, book, 15.0, 1);
+        index.add(replacement);
+
+        assertEquals(1, index.getStocks(book.getId()).size());
+        assertSame(replacement, index.getCheapest(book.getId()).get());
+    }
+
+    @Test
+    public void testUnknownBookIsEmpty() {
+        assertFalse(index.getCheapest(999).isPresent());
+        assertTrue(index.getStocks(999).isEmpty());
+    }
+}
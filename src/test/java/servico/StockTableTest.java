@@ -0,0 +1,56 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import dominio.Stock;
+
+public class StockTableTest {
+
+    private static Stock stock(int bookId) {
+        return StockFixtures.stock(bookId, 10.0, 5);
+    }
+
+    @Test
+    public void testLookupByBookId() {
+        StockTable table = new StockTable();
+        Stock first = stock(3);
+        Stock far = stock(1000);
+        table.put(first);
+        table.put(far);
+
+        assertSame(first, table.get(3));
+        assertSame(far, table.get(1000));
+        assertNull(table.get(4));
+        assertNull(table.get(-1));
+        assertNull(table.get(5000));
+        assertTrue(table.contains(1000));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testReplaceKeepsSize() {
+        StockTable table = new StockTable();
+        table.put(stock(7));
+        Stock replacement = stock(7);
+        table.put(replacement);
+        assertSame(replacement, table.get(7));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testForEachVisitsInBookIdOrder() {
+        StockTable table = new StockTable();
+        table.put(stock(90));
+        table.put(stock(2));
+        table.put(stock(40));
+        List<Integer> ids = new ArrayList<>();
+        table.forEach(stock -> ids.add(stock.getBook().getId()));
+        assertEquals(Arrays.asList(2, 40, 90), ids);
+    }
+}
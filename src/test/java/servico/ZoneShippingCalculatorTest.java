@@ -0,0 +1,131 @@
+package servico;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dominio.Address;
+import dominio.Author;
+import dominio.BACKINGS;
+import dominio.Book;
+import dominio.Cart;
+import dominio.CartQuote;
+import dominio.Country;
+import dominio.Customer;
+import dominio.SUBJECTS;
+import dominio.ShipTypes;
+import dominio.ShippingCalculator;
+import dominio.Stock;
+
+public class ZoneShippingCalculatorTest {
+
+    private Country brazil;
+    private Country portugal;
+    private Country france;
+    private Address home;
+    private Address paris;
+    private Stock light;
+    private Stock bulky;
+    private Customer customer;
+    private ZoneShippingCalculator calculator;
+
+    @Before
+    public void setUp() {
+        Date now = new Date();
+        brazil = new Country(0, "Brazil", "BRL", 1);
+        portugal = new Country(1, "Portugal", "Euro", 1);
+        france = new Country(2, "France", "Euro", 1);
+        home = new Address(0, "Rua A", "", "Lisboa", "LX", "1000", portugal);
+        paris = new Address(1, "Rue B", "", "Paris", "IDF", "75000", france);
+        Author author = new Author("John", "D", "Doe", now, "Bio");
+        // 1 kg and 100 x 100 x 100 mm, under the dimensional weight.
+        Book small = new Book(1, "Small", now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i", 10.0,
+                now, "1", 100, BACKINGS.PAPERBACK, new int[]{100, 100, 100}, 1000, author);
+        // 1 kg but 500 x 200 x 100 mm, 2 kg of dimensional weight.
+        Book large = new Book(2, "Large", now, "Pub", SUBJECTS.ARTS, "Desc", "t", "i", 10.0,
+                now, "2", 100, BACKINGS.HARDBACK, new int[]{500, 200, 100}, 1000, author);
+        light = new Stock(0, home, small, 10.0, 100);
+        bulky = new Stock(0, home, large, 10.0, 100);
+        customer = new Customer(0, "user", "pass", "first", "last", "11-0000-0000", "e@e.com",
+                now, now, now, now, 0.0, 0.0, 0.0, now, "", home);
+        calculator = new ZoneShippingCalculator(Arrays.asList(brazil, portugal, france));
+    }
+
+    @Test
+    public void testZones() {
+        assertEquals(ZoneShippingCalculator.DOMESTIC, calculator.getZone(portugal, portugal));
+        assertEquals(ZoneShippingCalculator.CURRENCY_AREA, calculator.getZone(portugal, france));
+        assertEquals(ZoneShippingCalculator.INTERNATIONAL, calculator.getZone(portugal, brazil));
+    }
+
+    @Test
+    public void testChargesBillableWeightByZone() {
+        Cart cart = new Cart(0, new Date());
+        cart.increaseLine(light, 2);
+        double domestic = calculator.shipCost(cart, home, ShipTypes.MAIL);
+        assertEquals(2.00 + 0.80 * 2, domestic, 1e-9);
+
+        cart.increaseLine(bulky, 1);
+        assertEquals(4.00 + 1.30 * 4, calculator.shipCost(cart, paris, ShipTypes.MAIL), 1e-9);
+        assertTrue(calculator.shipCost(cart, paris, ShipTypes.COURIER)
+                > calculator.shipCost(cart, paris, ShipTypes.SHIP));
+    }
+
+    @Test
+    public void testRepeatedQuotesHitTheCache() {
+        Cart first = new Cart(0, new Date());
+        first.increaseLine(light, 1);
+        first.increaseLine(bulky, 1);
+        Cart second = new Cart(1, new Date());
+        second.increaseLine(bulky, 1);
+        second.increaseLine(light, 1);
+
+        double cost = calculator.shipCost(first, paris, ShipTypes.UPS);
+        assertEquals(cost, calculator.shipCost(second, paris, ShipTypes.UPS), 0);
+        assertEquals(1, calculator.getCacheMisses());
+        assertEquals(1, calculator.getCacheHits());
+
+        second.changeLine(light, 2);
+        calculator.shipCost(second, paris, ShipTypes.UPS);
+        assertEquals(2, calculator.getCacheMisses());
+    }
+
+    @Test
+    public void testQuoteUsesCalculator() {
+        Cart cart = new Cart(0, new Date());
+        cart.increaseLine(light, 3);
+        CartQuote flat = cart.quote(customer, paris, ShipTypes.AIR, ShippingCalculator.FLAT);
+        assertEquals(cart.quote(customer).getTotal(), flat.getTotal(), 1e-9);
+
+        CartQuote zoned = cart.quote(customer, paris, ShipTypes.AIR, calculator);
+        assertEquals(calculator.shipCost(cart, paris, ShipTypes.AIR), zoned.getShipCost(), 0);
+        assertEquals(flat.getSubtotal() + flat.getTax() + zoned.getShipCost(), zoned.getTotal(), 1e-9);
+    }
+
+    @Test
+    public void testTotalUsesCartCalculator() {
+        Cart cart = new Cart(0, new Date());
+        cart.increaseLine(bulky, 2);
+        cart.setShippingCalculator(calculator);
+        assertEquals(cart.quote(customer, home, ShipTypes.AIR, calculator).getTotal(),
+                cart.total(customer), 1e-9);
+    }
+
+    @Test
+    public void testCacheKeyChecksCartContent() {
+        Cart one = new Cart(0, new Date());
+        one.increaseLine(light, 1);
+        Cart two = new Cart(1, new Date());
+        two.increaseLine(light, 2);
+        // Cache keys of carts that differ in units never match, even if
+        // their fingerprints were to collide.
+        double first = calculator.shipCost(one, paris, ShipTypes.MAIL);
+        double second = calculator.shipCost(two, paris, ShipTypes.MAIL);
+        assertNotEquals(first, second, 0);
+        assertEquals(2, calculator.getCacheMisses());
+    }
+}
@@ -0,0 +1,61 @@
+package util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares resolving DigSyl usernames through a {@code HashMap} with
+ * decoding them by {@link TPCW_Util#unDigSyl(CharSequence)} and indexing an
+ * array, at 10M customers by default. Not a unit test; run its {@code main}
+ * with the customer count as optional argument and a heap of a few GB.
+ */
+public class DigSylLookupBenchmark {
+
+    private static final int LOOKUPS = 5_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] unames = new String[customers];
+        Integer[] byId = new Integer[customers];
+        Map<String, Integer> byUsername = new HashMap<>(customers * 4 / 3 + 1);
+        for (int id = 0; id < customers; id++) {
+            unames[id] = TPCW_Util.DigSyl(id, 0);
+            byId[id] = id;
+            byUsername.put(unames[id], byId[id]);
+        }
+
+        Random random = new Random(42);
+        String[] queries = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            // Fresh strings, as parsed from a request, with no cached hash.
+            queries[i] = new String(unames[random.nextInt(customers)].toCharArray());
+        }
+
+        System.out.printf("%d customers, %d lookups per round%n", customers, LOOKUPS);
+        for (int round = 0; round < ROUNDS; round++) {
+            String[] fresh = new String[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                fresh[i] = new String(queries[i].toCharArray());
+            }
+            long sum = 0;
+            long start = System.nanoTime();
+            for (String query : fresh) {
+                sum += byUsername.get(query);
+            }
+            long map = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String query : queries) {
+                int id = TPCW_Util.unDigSyl(query);
+                if (unames[id].equals(query)) {
+                    sum -= byId[id];
+                }
+            }
+            long decode = System.nanoTime() - start;
+            System.out.printf("round %d: map %.1f ns, decode %.1f ns per lookup (%d)%n",
+                    round, map / (double) LOOKUPS, decode / (double) LOOKUPS, sum);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TPCW_UtilTest {
+
+    @Test
+    public void testDigSylRoundTrip() {
+        int[] values = {0, 1, 9, 10, 42, 1234567890, Integer.MAX_VALUE};
+        for (int value : values) {
+            assertEquals(value, TPCW_Util.unDigSyl(TPCW_Util.DigSyl(value, 0)));
+            assertEquals(value, TPCW_Util.unDigSyl(TPCW_Util.DigSyl(value, 12)));
+        }
+        assertEquals("OGALRIRESEATULINNGBA", TPCW_Util.DigSyl(1234567890, 0));
+    }
+
+    @Test
+    public void testUnDigSylRejectsOtherStrings() {
+        assertEquals(-1, TPCW_Util.unDigSyl(""));
+        assertEquals(-1, TPCW_Util.unDigSyl("BAO"));
+        assertEquals(-1, TPCW_Util.unDigSyl("BAXX"));
+        assertEquals(-1, TPCW_Util.unDigSyl("ba"));
+        assertEquals(-1, TPCW_Util.unDigSyl(TPCW_Util.DigSyl(Integer.MAX_VALUE, 0) + "BA"));
+    }
+}